@@ -0,0 +1,111 @@
+/*
+ * Compares benchmark results with baseline.json.
+ *
+ *   node android/benchmark/compare.js [results.json]   fail if a median is over 10% slower
+ *   node android/benchmark/compare.js --update [...]   record the results as the new baseline
+ *   node android/benchmark/compare.js --check          fail if baseline.json and the sources disagree
+ *
+ * Without a path, the newest results under benchmark/build/outputs are used. Medians are in
+ * nanoseconds; a null median has not been recorded yet and is only reported.
+ */
+const fs = require('fs');
+const path = require('path');
+
+const TOLERANCE = 0.1;
+const baselinePath = path.join(__dirname, 'baseline.json');
+const outputDir = path.join(__dirname, 'build', 'outputs', 'connected_android_test_additional_output');
+const sourceDir = path.join(__dirname, 'src', 'androidTest', 'java');
+
+function findFiles(dir, test) {
+  if (!fs.existsSync(dir)) {
+    return [];
+  }
+  return fs.readdirSync(dir, { withFileTypes: true }).flatMap(entry => {
+    const file = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      return findFiles(file, test);
+    }
+    return test(entry.name) ? [file] : [];
+  });
+}
+
+function newestResults() {
+  const files = findFiles(outputDir, name => name.endsWith('benchmarkData.json'));
+  if (files.length === 0) {
+    throw new Error(`no results in ${outputDir}; run ./gradlew :benchmark:connectedReleaseAndroidTest first`);
+  }
+  return files.sort((a, b) => fs.statSync(b).mtimeMs - fs.statSync(a).mtimeMs)[0];
+}
+
+function readResults(file) {
+  const data = JSON.parse(fs.readFileSync(file, 'utf8'));
+  const medians = {};
+  for (const benchmark of data.benchmarks) {
+    const className = benchmark.className.split('.').pop();
+    medians[`${className}.${benchmark.name}`] = benchmark.metrics.timeNs.median;
+  }
+  const build = data.context && data.context.build;
+  return { device: build ? `${build.model} (API ${build.version.sdk})` : null, medians };
+}
+
+// Every @Test method in the benchmark sources, as Class.method.
+function sourceBenchmarks() {
+  const names = [];
+  for (const file of findFiles(sourceDir, name => name.endsWith('Benchmark.java'))) {
+    const className = path.basename(file, '.java');
+    const source = fs.readFileSync(file, 'utf8');
+    for (const match of source.matchAll(/@Test\s+public void (\w+)\(/g)) {
+      names.push(`${className}.${match[1]}`);
+    }
+  }
+  return names.sort();
+}
+
+function check(baseline) {
+  const expected = sourceBenchmarks();
+  const recorded = Object.keys(baseline.benchmarks).sort();
+  const missing = expected.filter(name => !recorded.includes(name));
+  const stale = recorded.filter(name => !expected.includes(name));
+  missing.forEach(name => console.log(`missing from baseline.json: ${name}`));
+  stale.forEach(name => console.log(`no longer a benchmark: ${name}`));
+  return missing.length === 0 && stale.length === 0;
+}
+
+function compare(baseline, results) {
+  let ok = true;
+  if (baseline.device && results.device && baseline.device !== results.device) {
+    console.log(`baseline is from ${baseline.device}, these results are from ${results.device}`);
+  }
+  for (const [name, median] of Object.entries(results.medians).sort()) {
+    const before = baseline.benchmarks[name];
+    if (before == null) {
+      console.log(`${name}: ${median} ns (no baseline)`);
+      continue;
+    }
+    const change = (median - before) / before;
+    const regressed = change > TOLERANCE;
+    ok = ok && !regressed;
+    console.log(`${name}: ${before} -> ${median} ns (${(change * 100).toFixed(1)}%)${regressed ? ' REGRESSED' : ''}`);
+  }
+  return ok;
+}
+
+function main(args) {
+  const baseline = JSON.parse(fs.readFileSync(baselinePath, 'utf8'));
+  if (args[0] === '--check') {
+    return check(baseline);
+  }
+  const update = args[0] === '--update';
+  const results = readResults(update ? args[1] || newestResults() : args[0] || newestResults());
+  if (update) {
+    const benchmarks = {};
+    for (const name of Object.keys(baseline.benchmarks).concat(Object.keys(results.medians)).sort()) {
+      benchmarks[name] = name in results.medians ? results.medians[name] : baseline.benchmarks[name];
+    }
+    fs.writeFileSync(baselinePath, `${JSON.stringify({ device: results.device, benchmarks }, null, 2)}\n`);
+    return true;
+  }
+  return compare(baseline, results);
+}
+
+process.exitCode = main(process.argv.slice(2)) ? 0 : 1;
@@ -0,0 +1,48 @@
+package co.broadcastapp.muckabout;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+/** Downsampled decoding of a typical 1400 px podcast cover to the notification size. */
+@RunWith(AndroidJUnit4.class)
+public class ArtworkDecodeBenchmark {
+    private static final int SOURCE_SIZE = 1400;
+    private static final int TARGET_SIZE = 512;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private byte[] jpeg;
+
+    @Before
+    public void setUp() {
+        Bitmap source = Bitmap.createBitmap(SOURCE_SIZE, SOURCE_SIZE, Bitmap.Config.ARGB_8888);
+        source.eraseColor(Color.rgb(200, 40, 60));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        source.compress(Bitmap.CompressFormat.JPEG, 90, output);
+        source.recycle();
+        jpeg = output.toByteArray();
+    }
+
+    @Test
+    public void decode() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Bitmap bitmap = ArtworkLoader.decode(jpeg, TARGET_SIZE);
+            state.pauseTiming();
+            bitmap.recycle();
+            state.resumeTiming();
+        }
+    }
+}
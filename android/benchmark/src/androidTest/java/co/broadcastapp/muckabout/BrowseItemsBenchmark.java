@@ -0,0 +1,93 @@
+package co.broadcastapp.muckabout;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/** setMediaItems parsing, and the catalog lookups behind every browse and play from Android Auto. */
+@RunWith(AndroidJUnit4.class)
+public class BrowseItemsBenchmark {
+    private static final int ITEM_COUNT = 2000;
+    private static final int FOLDER_SIZE = 100;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private JSONArray json;
+    private List<MediaCatalog.Entry> entries;
+    private MediaCatalog catalog;
+
+    @Before
+    public void setUp() throws JSONException {
+        json = new JSONArray();
+        for (int i = 0; i < ITEM_COUNT / FOLDER_SIZE; i++) {
+            json.put(new JSONObject()
+                    .put("id", "show-" + i)
+                    .put("title", "Show " + i)
+                    .put("browsable", true));
+        }
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            json.put(new JSONObject()
+                    .put("id", "station-" + i)
+                    .put("parentId", "show-" + (i / FOLDER_SIZE))
+                    .put("title", "Station " + i)
+                    .put("artist", "Host " + i)
+                    .put("imageUrl", "https://media.example.org/images/" + i + ".png")
+                    .put("streamUrl", "https://streams.example.org/" + i + "/playlist.m3u8"));
+        }
+        entries = BrowseItems.parse(json, null, null);
+        catalog = new MediaCatalog("Recently played");
+        catalog.setAll(entries);
+    }
+
+    @Test
+    public void parse() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            BrowseItems.parse(json, null, null);
+        }
+    }
+
+    @Test
+    public void reparseUnchanged() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            catalog.setAll(BrowseItems.parse(json, null, catalog));
+        }
+    }
+
+    @Test
+    public void buildCatalog() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            new MediaCatalog("Recently played").setAll(entries);
+        }
+    }
+
+    @Test
+    public void findStreamUrlForLastItem() {
+        BenchmarkState state = benchmarkRule.getState();
+        String mediaId = "station-" + (ITEM_COUNT - 1);
+        while (state.keepRunning()) {
+            catalog.findStreamUrl(mediaId);
+        }
+    }
+
+    @Test
+    public void loadLastPageOfFolder() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            catalog.getChildren("show-0", 4, FOLDER_SIZE / 5);
+        }
+    }
+}
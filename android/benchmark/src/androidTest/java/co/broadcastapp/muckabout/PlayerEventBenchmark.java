@@ -0,0 +1,55 @@
+package co.broadcastapp.muckabout;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.getcapacitor.JSObject;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.metadata.Metadata;
+import com.google.android.exoplayer2.metadata.id3.PrivFrame;
+import com.google.android.exoplayer2.metadata.id3.TextInformationFrame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Work done on the main thread for every progress tick and every HLS segment. */
+@RunWith(AndroidJUnit4.class)
+public class PlayerEventBenchmark {
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void timeUpdateTick() {
+        BenchmarkState state = benchmarkRule.getState();
+        JSObject payload = new JSObject();
+        long position = 0;
+        while (state.keepRunning()) {
+            RemoteStreamerService.timeUpdateData(payload, position += 500, 3_600_000);
+        }
+    }
+
+    @Test
+    public void liveOffsetTick() {
+        BenchmarkState state = benchmarkRule.getState();
+        JSObject payload = new JSObject();
+        while (state.keepRunning()) {
+            RemoteStreamerService.liveOffsetData(payload, 12_000, C.TIME_UNSET, 1.0f);
+        }
+    }
+
+    @Test
+    public void parseRepeatedSegmentMetadata() {
+        // HLS carries the same tags in every segment; all but the first are dropped as repeats.
+        Metadata metadata = new Metadata(
+                new TextInformationFrame("TIT2", null, "All Things Considered"),
+                new TextInformationFrame("TPE1", null, "NPR"),
+                new PrivFrame("com.apple.streaming.transportStreamTimestamp", new byte[8]));
+        TimedMetadataParser parser = new TimedMetadataParser();
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            parser.parse(metadata);
+        }
+    }
+}
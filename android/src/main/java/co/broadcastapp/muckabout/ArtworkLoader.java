@@ -0,0 +1,370 @@
+package co.broadcastapp.muckabout;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Fetches artwork off the main thread, downsamples it to the size it is shown at and keeps the
+ * result in a byte-bounded memory LRU. The encoded bytes are also kept on disk when a disk
+ * directory is configured. Concurrent requests for the same image share one fetch, and
+ * callbacks are always delivered on the main thread.
+ */
+class ArtworkLoader {
+    private static final String TAG = "ArtworkLoader";
+    private static final long DISK_MAX_BYTES = 10 * 1024 * 1024;
+    private static final long THUMBNAIL_MAX_BYTES = 5 * 1024 * 1024;
+    // Artwork is a few hundred kilobytes at most; anything far larger is not worth decoding.
+    private static final int DOWNLOAD_MAX_BYTES = 4 * 1024 * 1024;
+    private static final int THUMBNAIL_QUALITY = 80;
+    private static final String THUMBNAIL_DIRECTORY = "remote-streamer-thumbnails";
+
+    interface Callback {
+        /** bitmap is null when the image could not be loaded. */
+        void onArtworkLoaded(String url, Bitmap bitmap);
+    }
+
+    interface ThumbnailCallback {
+        /** written is false when the thumbnail was already on disk. */
+        void onThumbnailReady(String url, File file, boolean written);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Now-playing art has its own thread so it never waits behind a folder of browse icons.
+    private final ExecutorService artworkExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService thumbnailExecutor = Executors.newFixedThreadPool(2);
+    // Callbacks waiting on a load or thumbnail, by key; the first caller for a key does the work.
+    private final Map<String, List<Callback>> loadsInFlight = new HashMap<>();
+    private final Map<String, List<ThumbnailCallback>> thumbnailsInFlight = new HashMap<>();
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskDirectory;
+    private final File thumbnailDirectory;
+
+    /**
+     * @param diskDirectory where encoded images are kept between runs, or null for memory only
+     * @param thumbnailDirectory where downscaled browse icons are written, or null to disable them
+     */
+    ArtworkLoader(int memoryBudgetBytes, File diskDirectory, File thumbnailDirectory) {
+        this.memoryCache = new LruCache<String, Bitmap>(memoryBudgetBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+        this.diskDirectory = diskDirectory;
+        this.thumbnailDirectory = thumbnailDirectory;
+        for (File directory : new File[] { diskDirectory, thumbnailDirectory }) {
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                Log.w(TAG, "could not create " + directory);
+            }
+        }
+    }
+
+    static ArtworkLoader create(Context context) {
+        int memoryBudget = (int) Math.min(8 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+        return new ArtworkLoader(memoryBudget, new File(context.getCacheDir(), "remote-streamer-artwork"), getThumbnailDirectory(context));
+    }
+
+    static File getThumbnailDirectory(Context context) {
+        return new File(context.getCacheDir(), THUMBNAIL_DIRECTORY);
+    }
+
+    void load(final String url, final int targetSize, Callback callback) {
+        if (url == null || url.isEmpty()) {
+            mainHandler.post(() -> callback.onArtworkLoaded(url, null));
+            return;
+        }
+        final String key = key(url, targetSize);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            mainHandler.post(() -> callback.onArtworkLoaded(url, cached));
+            return;
+        }
+        if (!join(loadsInFlight, key, callback)) {
+            return;
+        }
+        artworkExecutor.execute(() -> {
+            Bitmap bitmap = null;
+            try {
+                byte[] data = readFromDisk(url);
+                if (data == null) {
+                    data = download(url);
+                    writeToDisk(url, data);
+                }
+                bitmap = decode(data, targetSize);
+                if (bitmap != null) {
+                    memoryCache.put(key, bitmap);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "could not load image " + url, e);
+            }
+            final Bitmap loaded = bitmap;
+            List<Callback> callbacks = finish(loadsInFlight, key);
+            mainHandler.post(() -> {
+                for (Callback waiting : callbacks) {
+                    waiting.onArtworkLoaded(url, loaded);
+                }
+            });
+        });
+    }
+
+    /**
+     * Writes a lossy WebP of the image scaled to targetSize into the thumbnail directory, reusing
+     * one written earlier. The decoded bitmap is dropped straight away so a long browse list does
+     * not hold its icons in memory. The callback is not invoked if the image can't be loaded.
+     * A thumbnail that is found counts as used, so the directory trim keeps it over older ones.
+     */
+    void prefetchThumbnail(final String url, final int targetSize, final ThumbnailCallback callback) {
+        if (url == null || url.isEmpty() || thumbnailDirectory == null) {
+            return;
+        }
+        final String key = key(url, targetSize);
+        if (!join(thumbnailsInFlight, key, callback)) {
+            return;
+        }
+        thumbnailExecutor.execute(() -> {
+            File file = new File(thumbnailDirectory, fileName(url) + "-" + targetSize + ".webp");
+            boolean written = !file.isFile();
+            if (!written) {
+                file.setLastModified(System.currentTimeMillis());
+            } else {
+                try {
+                    byte[] data = readFromDisk(url);
+                    if (data == null) {
+                        data = download(url);
+                        writeToDisk(url, data);
+                    }
+                    Bitmap bitmap = decode(data, targetSize);
+                    if (bitmap == null) {
+                        finish(thumbnailsInFlight, key);
+                        return;
+                    }
+                    writeThumbnail(scaleDown(bitmap, targetSize), file);
+                } catch (IOException e) {
+                    Log.e(TAG, "could not prefetch image " + url, e);
+                    finish(thumbnailsInFlight, key);
+                    return;
+                }
+                trimDirectory(thumbnailDirectory, THUMBNAIL_MAX_BYTES);
+            }
+            List<ThumbnailCallback> callbacks = finish(thumbnailsInFlight, key);
+            mainHandler.post(() -> {
+                for (ThumbnailCallback waiting : callbacks) {
+                    waiting.onThumbnailReady(url, file, written);
+                }
+            });
+        });
+    }
+
+    void release() {
+        artworkExecutor.shutdownNow();
+        thumbnailExecutor.shutdownNow();
+        memoryCache.evictAll();
+    }
+
+    /** Queues the callback under key; true when the caller is the first and should do the work. */
+    private static <T> boolean join(Map<String, List<T>> inFlight, String key, T callback) {
+        synchronized (inFlight) {
+            List<T> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return false;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+            return true;
+        }
+    }
+
+    private static <T> List<T> finish(Map<String, List<T>> inFlight, String key) {
+        synchronized (inFlight) {
+            List<T> callbacks = inFlight.remove(key);
+            return callbacks != null ? callbacks : new ArrayList<>();
+        }
+    }
+
+    private static String key(String url, int targetSize) {
+        return targetSize + ":" + url;
+    }
+
+    private byte[] download(String url) throws IOException {
+        Request request = new Request.Builder().url(url).build();
+        try (Response response = NetworkStack.getClient().newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("HTTP " + response.code() + " for " + url);
+            }
+            // Checked up front when the server says, and while reading when it doesn't.
+            if (body.contentLength() > DOWNLOAD_MAX_BYTES) {
+                throw new IOException(body.contentLength() + " bytes is too large for artwork at " + url);
+            }
+            try (InputStream input = body.byteStream()) {
+                return readFully(input, DOWNLOAD_MAX_BYTES);
+            }
+        }
+    }
+
+    private byte[] readFromDisk(String url) {
+        if (diskDirectory == null) {
+            return null;
+        }
+        File file = new File(diskDirectory, fileName(url));
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream input = new FileInputStream(file)) {
+            file.setLastModified(System.currentTimeMillis());
+            return readFully(input, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            Log.w(TAG, "could not read cached image " + url, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String url, byte[] data) {
+        if (diskDirectory == null) {
+            return;
+        }
+        // Written under a temporary name, so a crash or a concurrent read never sees half a file.
+        File file = new File(diskDirectory, fileName(url));
+        File temp = new File(diskDirectory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temp)) {
+            output.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "could not cache image " + url, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "could not cache image " + url);
+            temp.delete();
+            return;
+        }
+        trimDirectory(diskDirectory, DISK_MAX_BYTES);
+    }
+
+    private static Bitmap scaleDown(Bitmap bitmap, int targetSize) {
+        int largest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (largest <= targetSize) {
+            return bitmap;
+        }
+        float scale = (float) targetSize / largest;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+        bitmap.recycle();
+        return scaled;
+    }
+
+    private static void writeThumbnail(Bitmap bitmap, File file) throws IOException {
+        // Write to a temporary file first so the provider never serves a half-written image.
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temp)) {
+            // Icons are shown small and often have transparent edges, so lossy WebP keeps the
+            // alpha at a fraction of a PNG's size and more of them fit in the directory.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                bitmap.compress(Bitmap.CompressFormat.WEBP_LOSSY, THUMBNAIL_QUALITY, output);
+            } else {
+                bitmap.compress(Bitmap.CompressFormat.WEBP, THUMBNAIL_QUALITY, output);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("could not write " + file);
+        }
+    }
+
+    private static synchronized void trimDirectory(File directory, long maxBytes) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private static String fileName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static byte[] readFully(InputStream input, int maxBytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            if (output.size() + read > maxBytes) {
+                throw new IOException("image is larger than " + maxBytes + " bytes");
+            }
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    static Bitmap decode(byte[] data, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /** Largest power of two that keeps both sides at or above targetSize. */
+    static int calculateInSampleSize(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetSize && height / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
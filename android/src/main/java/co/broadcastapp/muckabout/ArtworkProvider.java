@@ -0,0 +1,68 @@
+package co.broadcastapp.muckabout;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Serves the browse thumbnails written by {@link ArtworkLoader#prefetchThumbnail} so Android Auto
+ * can read station artwork from local storage instead of fetching it over the network.
+ */
+public class ArtworkProvider extends ContentProvider {
+    private static final String AUTHORITY_SUFFIX = ".remotestreamer.artwork";
+
+    static Uri getUri(Context context, File thumbnail) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getPackageName() + AUTHORITY_SUFFIX)
+                .appendPath(thumbnail.getName())
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        String name = uri.getLastPathSegment();
+        // Only hand out thumbnails, never anything else from the cache directory.
+        if (name == null || !name.matches("[0-9a-f]+-[0-9]+\\.webp")) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        File file = new File(ArtworkLoader.getThumbnailDirectory(getContext()), name);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/webp";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("read only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("read only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("read only");
+    }
+}
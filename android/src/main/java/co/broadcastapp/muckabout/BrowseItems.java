@@ -0,0 +1,86 @@
+package co.broadcastapp.muckabout;
+
+import android.net.Uri;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Parses the browse items sent from JS into catalog entries. */
+final class BrowseItems {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private BrowseItems() {}
+
+    /**
+     * Items with a stream URL are playable, browsable ones are folders, and an item can be
+     * both. Items that can't be parsed are logged and skipped.
+     *
+     * @param parentId the folder for items that don't name one, or null for the top level
+     * @param catalog items it already holds with the same content are reused rather than
+     *                rebuilt; may be null
+     */
+    static List<MediaCatalog.Entry> parse(JSONArray items, String parentId, MediaCatalog catalog) {
+        List<MediaCatalog.Entry> entries = new ArrayList<>(items.length());
+        for (int i = 0; i < items.length(); i++) {
+            try {
+                JSONObject json = items.getJSONObject(i);
+                String id = json.optString("id", null);
+                if (id == null) {
+                    throw new JSONException("id is required");
+                }
+                long hash = hash(json.toString());
+                String itemParentId = json.optString("parentId", parentId != null ? parentId : MediaCatalog.ROOT_ID);
+                MediaCatalog.Entry existing = catalog != null ? catalog.getEntry(id) : null;
+                if (existing != null && existing.hash == hash && existing.parentId.equals(itemParentId)) {
+                    entries.add(existing);
+                    continue;
+                }
+
+                JSObject item = JSObject.fromJSONObject(json);
+                String imageUrl = item.getString("imageUrl");
+                String streamUrl = item.getString("streamUrl");
+                boolean browsable = item.getBoolean("browsable", false);
+
+                MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                        .setMediaId(id)
+                        .setTitle(item.getString("title"))
+                        .setSubtitle(item.getString("artist"))
+                        .setIconUri(imageUrl != null ? Uri.parse(imageUrl) : null)
+                        .setMediaUri(streamUrl != null ? Uri.parse(streamUrl) : null)
+                        .build();
+
+                int flags = 0;
+                if (browsable) flags |= MediaBrowserCompat.MediaItem.FLAG_BROWSABLE;
+                if (streamUrl != null) flags |= MediaBrowserCompat.MediaItem.FLAG_PLAYABLE;
+                entries.add(new MediaCatalog.Entry(
+                        new MediaBrowserCompat.MediaItem(description, flags),
+                        itemParentId,
+                        item.getBoolean("lazy", false),
+                        hash));
+            } catch (JSONException e) {
+                Log.e("streamer", "Error parsing media item at index " + i, e);
+            }
+        }
+        return entries;
+    }
+
+    /** 64-bit FNV-1a; JS serialises an unchanged item the same way every time. */
+    static long hash(String content) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < content.length(); i++) {
+            hash ^= content.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,99 @@
+package co.broadcastapp.muckabout;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import org.json.JSONObject;
+
+/**
+ * How much audio the player keeps ahead of (and behind) the playhead. Live streams want to start
+ * fast and have nothing worth keeping behind them; on-demand episodes want a deeper buffer and
+ * some back buffer for instant rewind, but not minutes of compressed audio on low-RAM devices.
+ */
+final class BufferProfile {
+    static final BufferProfile LIVE = new BufferProfile(10000, 30000, 1500, 3000, 0, 2 * 1024 * 1024);
+    static final BufferProfile ON_DEMAND = new BufferProfile(20000, 60000, 2000, 4000, 30000, 4 * 1024 * 1024);
+    static final BufferProfile LOW_MEMORY = new BufferProfile(10000, 20000, 1500, 3000, 10000, 1024 * 1024);
+
+    // Budget for one side of the timeshift window, enough for AAC up to about 128 kbps.
+    private static final int TIMESHIFT_BYTES_PER_MINUTE = 1024 * 1024;
+    // Share of the app's heap the timeshift window may take up.
+    private static final int TIMESHIFT_HEAP_DIVISOR = 8;
+    private static final int TIMESHIFT_LOW_RAM_HEAP_DIVISOR = 16;
+
+    final int minBufferMs;
+    final int maxBufferMs;
+    final int bufferForPlaybackMs;
+    final int bufferForPlaybackAfterRebufferMs;
+    final int backBufferMs;
+    final int targetBufferBytes;
+
+    BufferProfile(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs, int backBufferMs, int targetBufferBytes) {
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = Math.max(minBufferMs, maxBufferMs);
+        this.bufferForPlaybackMs = Math.min(bufferForPlaybackMs, minBufferMs);
+        this.bufferForPlaybackAfterRebufferMs = Math.min(bufferForPlaybackAfterRebufferMs, minBufferMs);
+        this.backBufferMs = backBufferMs;
+        this.targetBufferBytes = targetBufferBytes;
+    }
+
+    /** Returns the profile called name ("live", "onDemand" or "lowMemory"), or null if unknown. */
+    static BufferProfile named(String name) {
+        switch (name) {
+            case "live":
+                return LIVE;
+            case "onDemand":
+                return ON_DEMAND;
+            case "lowMemory":
+                return LOW_MEMORY;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A live profile that keeps up to minutes of audio behind the playhead for rewinding, and
+     * keeps loading while paused until minutes have been recorded ahead of it. The player can't
+     * seek before the start of the live playlist, so no more than liveWindowMs is kept (when
+     * known, otherwise C.TIME_UNSET). The window is held on the heap, so it is also shortened
+     * to fit a share of the app's memory class.
+     */
+    static BufferProfile timeshift(Context context, int minutes, long liveWindowMs) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+            long budget = heapBytes / (activityManager.isLowRamDevice() ? TIMESHIFT_LOW_RAM_HEAP_DIVISOR : TIMESHIFT_HEAP_DIVISOR);
+            minutes = (int) Math.max(1, Math.min(minutes, budget / (2 * TIMESHIFT_BYTES_PER_MINUTE)));
+        }
+        int windowMs = minutes * 60 * 1000;
+        if (liveWindowMs > 0) {
+            windowMs = (int) Math.max(LIVE.minBufferMs, Math.min(windowMs, liveWindowMs));
+        }
+        int targetBytes = (int) Math.max(LIVE.targetBufferBytes, 2L * TIMESHIFT_BYTES_PER_MINUTE * windowMs / 60000);
+        return new BufferProfile(LIVE.minBufferMs, windowMs, LIVE.bufferForPlaybackMs, LIVE.bufferForPlaybackAfterRebufferMs,
+                windowMs, targetBytes);
+    }
+
+    static BufferProfile forStream(Context context, boolean isLiveStream) {
+        if (isLiveStream) {
+            return LIVE;
+        }
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null && activityManager.isLowRamDevice() ? LOW_MEMORY : ON_DEMAND;
+    }
+
+    /** Copies this profile with any of the given fields (seconds, except targetBufferBytes) replaced. */
+    BufferProfile withOverrides(JSONObject overrides) {
+        return new BufferProfile(
+                seconds(overrides, "minBuffer", minBufferMs),
+                seconds(overrides, "maxBuffer", maxBufferMs),
+                seconds(overrides, "bufferForPlayback", bufferForPlaybackMs),
+                seconds(overrides, "bufferForPlaybackAfterRebuffer", bufferForPlaybackAfterRebufferMs),
+                seconds(overrides, "backBuffer", backBufferMs),
+                overrides.optInt("targetBufferBytes", targetBufferBytes));
+    }
+
+    private static int seconds(JSONObject overrides, String key, int defaultMs) {
+        return (int) (overrides.optDouble(key, defaultMs / 1000.0) * 1000); // s to ms
+    }
+}
@@ -0,0 +1,137 @@
+package co.broadcastapp.muckabout;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a snapshot of the browse catalog and recently played items on disk, so Android Auto
+ * can browse and resume straight after a cold start, before the app's JS has run. The file is
+ * a small versioned binary format, read in one pass, and is replaced atomically so a crash
+ * mid-write leaves the previous snapshot in place. Icons are saved as the URLs JS sent.
+ */
+final class CatalogStore {
+    private static final String TAG = "CatalogStore";
+    private static final String FILE_NAME = "remote-streamer-catalog.bin";
+    private static final int MAGIC = 0x52534354; // "RSCT"
+    private static final int VERSION = 2;
+
+    private final AtomicFile file;
+
+    CatalogStore(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /** Fills the catalog from the snapshot; leaves it empty when there is none or it's unreadable. */
+    void load(MediaCatalog catalog) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "ignoring snapshot in an unknown format");
+                return;
+            }
+            int entryCount = in.readInt();
+            List<MediaCatalog.Entry> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                entries.add(readEntry(in));
+            }
+            int recentCount = in.readInt();
+            List<String> recents = new ArrayList<>(recentCount);
+            for (int i = 0; i < recentCount; i++) {
+                recents.add(in.readUTF());
+            }
+            catalog.restore(entries, recents);
+        } catch (FileNotFoundException e) {
+            // Nothing saved yet.
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "could not read catalog snapshot", e);
+        }
+    }
+
+    /** Writes the catalog as it is now. Blocks on disk, so call it off the main thread. */
+    void save(MediaCatalog catalog) {
+        List<MediaCatalog.Entry> entries = catalog.getEntries();
+        List<String> recents = catalog.getRecents();
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (MediaCatalog.Entry entry : entries) {
+                writeEntry(out, entry);
+            }
+            out.writeInt(recents.size());
+            for (String id : recents) {
+                out.writeUTF(id);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "could not write catalog snapshot", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, MediaCatalog.Entry entry) throws IOException {
+        MediaDescriptionCompat description = entry.item.getDescription();
+        out.writeUTF(entry.getId());
+        out.writeUTF(entry.parentId);
+        out.writeInt(entry.item.getFlags());
+        out.writeBoolean(entry.lazy);
+        out.writeLong(entry.hash);
+        writeString(out, description.getTitle());
+        writeString(out, description.getSubtitle());
+        // The local thumbnail lives in the cache directory and may be gone by the next start;
+        // the service makes it again from the original URL.
+        writeString(out, entry.artworkUrl);
+        writeString(out, description.getMediaUri());
+    }
+
+    private static MediaCatalog.Entry readEntry(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        String parentId = in.readUTF();
+        int flags = in.readInt();
+        boolean lazy = in.readBoolean();
+        long hash = in.readLong();
+        String title = readString(in);
+        String subtitle = readString(in);
+        String iconUri = readString(in);
+        String mediaUri = readString(in);
+        MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                .setMediaId(id)
+                .setTitle(title)
+                .setSubtitle(subtitle)
+                .setIconUri(iconUri != null ? Uri.parse(iconUri) : null)
+                .setMediaUri(mediaUri != null ? Uri.parse(mediaUri) : null)
+                .build();
+        return new MediaCatalog.Entry(new MediaBrowserCompat.MediaItem(description, flags), parentId, lazy, hash);
+    }
+
+    private static void writeString(DataOutputStream out, Object value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,213 @@
+package co.broadcastapp.muckabout;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.google.android.exoplayer2.offline.Download;
+import com.google.android.exoplayer2.offline.DownloadCursor;
+import com.google.android.exoplayer2.offline.DownloadManager;
+import com.google.android.exoplayer2.scheduler.Requirements;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide owner of the download manager and the cache downloads are stored in. The service
+ * reads that cache when playing, so a downloaded episode never touches the network. State
+ * changes, and progress once a second while anything downloads, go to the listener on the main
+ * thread. Download options are saved, so they hold when the system restarts downloads without
+ * the app.
+ */
+final class DownloadTracker {
+    private static final String TAG = "DownloadTracker";
+    private static final String DIRECTORY = "remote-streamer-downloads";
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+    private static final String PREFERENCES = "remote-streamer-downloads";
+    private static final String KEY_UNMETERED_ONLY = "unmeteredOnly";
+    private static final String KEY_REQUIRES_CHARGING = "requiresCharging";
+    private static final String KEY_MAX_PARALLEL_DOWNLOADS = "maxParallelDownloads";
+
+    interface Listener {
+        void onDownloadEvent(String eventName, JSObject data);
+    }
+
+    private static DownloadTracker instance;
+
+    private final SharedPreferences preferences;
+    private final Cache cache;
+    private final DownloadManager downloadManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable progressTask = this::reportProgress;
+    private Listener listener;
+
+    /** Must first be called on the main thread, which the download manager reports on. */
+    static synchronized DownloadTracker get(Context context) {
+        if (instance == null) {
+            instance = new DownloadTracker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DownloadTracker(Context context) {
+        // Kept in files rather than cache so the system doesn't clear episodes the user saved.
+        cache = new SimpleCache(new File(context.getFilesDir(), DIRECTORY), new NoOpCacheEvictor(), MediaCache.getDatabaseProvider(context));
+        downloadManager = new DownloadManager(
+                context,
+                MediaCache.getDatabaseProvider(context),
+                cache,
+                NetworkStack.createDataSourceFactory(NetworkStack.getUserAgent(context)),
+                Executors.newFixedThreadPool(2));
+        // Saved options go in before the manager starts work on the restored downloads.
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        downloadManager.setRequirements(requirements(
+                preferences.getBoolean(KEY_UNMETERED_ONLY, false),
+                preferences.getBoolean(KEY_REQUIRES_CHARGING, false)));
+        downloadManager.setMaxParallelDownloads(preferences.getInt(KEY_MAX_PARALLEL_DOWNLOADS, 2));
+        downloadManager.addListener(new DownloadManager.Listener() {
+            @Override
+            public void onDownloadChanged(DownloadManager manager, Download download, Exception finalException) {
+                JSObject data = toJSObject(download);
+                if (finalException != null) {
+                    data.put("error", finalException.getMessage());
+                }
+                notify("downloadChange", data);
+                scheduleProgress();
+            }
+
+            @Override
+            public void onDownloadRemoved(DownloadManager manager, Download download) {
+                notify("downloadChange", toJSObject(download).put("state", "removed"));
+            }
+        });
+    }
+
+    Cache getCache() {
+        return cache;
+    }
+
+    DownloadManager getDownloadManager() {
+        return downloadManager;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+        scheduleProgress();
+    }
+
+    /** Every download the manager knows about, including completed and failed ones. */
+    JSArray getDownloads() {
+        JSArray downloads = new JSArray();
+        try (DownloadCursor cursor = downloadManager.getDownloadIndex().getDownloads()) {
+            while (cursor.moveToNext()) {
+                downloads.put(toJSObject(cursor.getDownload()));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "could not read downloads", e);
+        }
+        return downloads;
+    }
+
+    /**
+     * Saves the options and applies them to the manager; call on the main thread. The download
+     * service still needs the requirements for its scheduler.
+     *
+     * @param maxParallelDownloads null to keep the current limit
+     */
+    void setOptions(boolean unmeteredOnly, boolean requiresCharging, Integer maxParallelDownloads) {
+        SharedPreferences.Editor editor = preferences.edit()
+                .putBoolean(KEY_UNMETERED_ONLY, unmeteredOnly)
+                .putBoolean(KEY_REQUIRES_CHARGING, requiresCharging);
+        downloadManager.setRequirements(requirements(unmeteredOnly, requiresCharging));
+        if (maxParallelDownloads != null) {
+            editor.putInt(KEY_MAX_PARALLEL_DOWNLOADS, maxParallelDownloads);
+            downloadManager.setMaxParallelDownloads(maxParallelDownloads);
+        }
+        editor.apply();
+    }
+
+    static Requirements requirements(boolean unmeteredOnly, boolean requiresCharging) {
+        int flags = unmeteredOnly ? Requirements.NETWORK_UNMETERED : Requirements.NETWORK;
+        if (requiresCharging) {
+            flags |= Requirements.DEVICE_CHARGING;
+        }
+        return new Requirements(flags);
+    }
+
+    private void notify(String eventName, JSObject data) {
+        if (listener != null) {
+            listener.onDownloadEvent(eventName, data);
+        }
+    }
+
+    private void scheduleProgress() {
+        handler.removeCallbacks(progressTask);
+        if (listener != null && hasActiveDownloads()) {
+            handler.postDelayed(progressTask, PROGRESS_INTERVAL_MS);
+        }
+    }
+
+    private void reportProgress() {
+        for (Download download : downloadManager.getCurrentDownloads()) {
+            if (download.state == Download.STATE_DOWNLOADING) {
+                notify("downloadProgress", toJSObject(download));
+            }
+        }
+        scheduleProgress();
+    }
+
+    private boolean hasActiveDownloads() {
+        List<Download> downloads = downloadManager.getCurrentDownloads();
+        for (Download download : downloads) {
+            if (download.state == Download.STATE_DOWNLOADING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static JSObject toJSObject(Download download) {
+        JSObject data = new JSObject()
+                .put("id", download.request.id)
+                .put("url", download.request.uri.toString())
+                .put("state", stateName(download.state))
+                .put("bytesDownloaded", download.getBytesDownloaded());
+        if (download.request.data.length > 0) {
+            data.put("title", Util.fromUtf8Bytes(download.request.data));
+        }
+        float percent = download.getPercentDownloaded();
+        if (percent >= 0) {
+            data.put("percentDownloaded", percent);
+        }
+        return data;
+    }
+
+    private static String stateName(int state) {
+        switch (state) {
+            case Download.STATE_QUEUED:
+                return "queued";
+            case Download.STATE_STOPPED:
+                return "stopped";
+            case Download.STATE_DOWNLOADING:
+                return "downloading";
+            case Download.STATE_COMPLETED:
+                return "completed";
+            case Download.STATE_FAILED:
+                return "failed";
+            case Download.STATE_REMOVING:
+                return "removing";
+            default:
+                return "restarting";
+        }
+    }
+}
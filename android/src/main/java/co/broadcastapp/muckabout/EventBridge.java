@@ -0,0 +1,136 @@
+package co.broadcastapp.muckabout;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sits in front of notifyListeners, since every event costs a JSON round through the WebView
+ * on the thread that renders the UI:
+ * <ul>
+ *   <li>events without a JS listener are dropped;</li>
+ *   <li>a state event repeating the last state (play after play, the same buffering flag) is
+ *       dropped;</li>
+ *   <li>progress events are coalesced, only the latest of each is sent, at most once per
+ *       interval;</li>
+ *   <li>any coalesced progress is sent before a discrete event, so JS still sees them in
+ *       order.</li>
+ * </ul>
+ * Payloads are serialised as they are sent, so callers may reuse one object per event name.
+ * Runs on the main thread; events from other threads are moved there.
+ */
+class EventBridge {
+    interface Sink {
+        boolean hasListeners(String eventName);
+
+        void send(String eventName, JSObject data);
+    }
+
+    private static final long COALESCE_INTERVAL_MS = 100;
+    private static final Set<String> COALESCED = new HashSet<>(Arrays.asList("timeUpdate", "liveOffset", "downloadProgress"));
+    // Events whose repeats carry no news, mapped to the state they describe. play, pause and
+    // stop are one state, so pause after play goes through.
+    private static final Map<String, String> STATES = new HashMap<>();
+    static {
+        STATES.put("play", "playback");
+        STATES.put("pause", "playback");
+        STATES.put("stop", "playback");
+        STATES.put("buffering", "buffering");
+        STATES.put("variantChange", "variant");
+    }
+
+    private final Sink sink;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, String> lastStates = new HashMap<>();
+    // Keyed by event name, or name and id where several items report progress at once.
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private final Runnable flushTask = this::flush;
+    private boolean flushScheduled = false;
+    private long lastFlushTime = 0;
+
+    private static final class Pending {
+        final String eventName;
+        JSObject data;
+
+        Pending(String eventName, JSObject data) {
+            this.eventName = eventName;
+            this.data = data;
+        }
+    }
+
+    EventBridge(Sink sink) {
+        this.sink = sink;
+    }
+
+    void emit(String eventName, JSObject data) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            handler.post(() -> emit(eventName, data));
+            return;
+        }
+        if (COALESCED.contains(eventName)) {
+            if (!sink.hasListeners(eventName)) {
+                return;
+            }
+            String key = "downloadProgress".equals(eventName) ? eventName + ":" + data.getString("id") : eventName;
+            Pending entry = pending.get(key);
+            if (entry != null) {
+                entry.data = data;
+            } else {
+                pending.put(key, new Pending(eventName, data));
+            }
+            scheduleFlush();
+            return;
+        }
+
+        String state = STATES.get(eventName);
+        if (state != null) {
+            // Tracked even without listeners, so a listener added later doesn't get a stale repeat.
+            String value = eventName + data.toString();
+            if (value.equals(lastStates.put(state, value))) {
+                return;
+            }
+        }
+        if (!sink.hasListeners(eventName)) {
+            return;
+        }
+        flush();
+        sink.send(eventName, data);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        long delay = Math.max(0, lastFlushTime + COALESCE_INTERVAL_MS - SystemClock.uptimeMillis());
+        handler.postDelayed(flushTask, delay);
+    }
+
+    private void flush() {
+        handler.removeCallbacks(flushTask);
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        lastFlushTime = SystemClock.uptimeMillis();
+        List<Pending> batch = new ArrayList<>(pending.values());
+        pending.clear();
+        for (Pending entry : batch) {
+            // A listener may have gone while the event waited.
+            if (sink.hasListeners(entry.eventName)) {
+                sink.send(entry.eventName, entry.data);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package co.broadcastapp.muckabout;
+
+import com.google.android.exoplayer2.DefaultLivePlaybackSpeedControl;
+import com.google.android.exoplayer2.LivePlaybackSpeedControl;
+import com.google.android.exoplayer2.MediaItem;
+
+/**
+ * The default live speed control, with a switch that holds the speed at 1. The player reads the
+ * live configuration's speed range only when a media item starts, so this is how catch-up is
+ * turned off or on for the stream already playing, for example when timeshift is toggled.
+ */
+class LiveSpeedControl implements LivePlaybackSpeedControl {
+    private final LivePlaybackSpeedControl delegate = new DefaultLivePlaybackSpeedControl.Builder().build();
+    private volatile boolean pinned;
+
+    /** While pinned the player stays at normal speed instead of drifting toward the target offset. */
+    void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+
+    @Override
+    public void setLiveConfiguration(MediaItem.LiveConfiguration liveConfiguration) {
+        delegate.setLiveConfiguration(liveConfiguration);
+    }
+
+    @Override
+    public void setTargetLiveOffsetOverrideUs(long liveOffsetUs) {
+        delegate.setTargetLiveOffsetOverrideUs(liveOffsetUs);
+    }
+
+    @Override
+    public void notifyRebuffer() {
+        delegate.notifyRebuffer();
+    }
+
+    @Override
+    public float getAdjustedPlaybackSpeed(long liveOffsetUs, long bufferedDurationUs) {
+        float speed = delegate.getAdjustedPlaybackSpeed(liveOffsetUs, bufferedDurationUs);
+        return pinned ? 1.0f : speed;
+    }
+
+    @Override
+    public long getTargetLiveOffsetUs() {
+        return delegate.getTargetLiveOffsetUs();
+    }
+}
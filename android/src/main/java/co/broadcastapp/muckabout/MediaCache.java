@@ -0,0 +1,119 @@
+package co.broadcastapp.muckabout;
+
+import android.content.Context;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.database.DatabaseProvider;
+import com.google.android.exoplayer2.database.StandaloneDatabaseProvider;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.util.TreeSet;
+
+/**
+ * Process-wide holder for the on-disk media cache. SimpleCache locks its directory, so there
+ * must only ever be one instance per folder no matter how often the service is recreated.
+ */
+final class MediaCache {
+    private static final String DIRECTORY = "remote-streamer-media";
+
+    private static DatabaseProvider databaseProvider;
+    private static SimpleCache cache;
+    private static ResizableLruEvictor evictor;
+
+    private MediaCache() {}
+
+    static synchronized DatabaseProvider getDatabaseProvider(Context context) {
+        if (databaseProvider == null) {
+            databaseProvider = new StandaloneDatabaseProvider(context.getApplicationContext());
+        }
+        return databaseProvider;
+    }
+
+    /**
+     * Returns the shared LRU cache capped at maxBytes, or null when maxBytes is 0. The cache is
+     * never released, since a player or the prebuffer may still be reading from it; a new cap
+     * only changes how much it keeps, evicting the least recently used content to fit.
+     */
+    static synchronized Cache get(Context context, long maxBytes) {
+        if (cache == null) {
+            if (maxBytes <= 0) {
+                return null;
+            }
+            File directory = new File(context.getCacheDir(), DIRECTORY);
+            evictor = new ResizableLruEvictor(maxBytes);
+            cache = new SimpleCache(directory, evictor, getDatabaseProvider(context));
+        } else {
+            evictor.setMaxBytes(cache, Math.max(maxBytes, 0));
+        }
+        return maxBytes > 0 ? cache : null;
+    }
+
+    /**
+     * LeastRecentlyUsedCacheEvictor with a cap that can change while the cache is open. The
+     * cache calls in holding its own lock, so outside calls take the same one.
+     */
+    private static final class ResizableLruEvictor implements CacheEvictor {
+        private final TreeSet<CacheSpan> spans = new TreeSet<>((a, b) -> {
+            long difference = a.lastTouchTimestamp - b.lastTouchTimestamp;
+            return difference == 0 ? a.compareTo(b) : (difference < 0 ? -1 : 1);
+        });
+        private long maxBytes;
+        private long currentSize;
+
+        ResizableLruEvictor(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        void setMaxBytes(Cache cache, long maxBytes) {
+            synchronized (cache) {
+                this.maxBytes = maxBytes;
+                evict(cache, 0);
+            }
+        }
+
+        @Override
+        public boolean requiresCacheSpanTouches() {
+            return true;
+        }
+
+        @Override
+        public void onCacheInitialized() {
+        }
+
+        @Override
+        public void onStartFile(Cache cache, String key, long position, long length) {
+            if (length != C.LENGTH_UNSET) {
+                evict(cache, length);
+            }
+        }
+
+        @Override
+        public void onSpanAdded(Cache cache, CacheSpan span) {
+            spans.add(span);
+            currentSize += span.length;
+            evict(cache, 0);
+        }
+
+        @Override
+        public void onSpanRemoved(Cache cache, CacheSpan span) {
+            spans.remove(span);
+            currentSize -= span.length;
+        }
+
+        @Override
+        public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+            onSpanRemoved(cache, oldSpan);
+            onSpanAdded(cache, newSpan);
+        }
+
+        private void evict(Cache cache, long requiredSpace) {
+            while (currentSize + requiredSpace > maxBytes && !spans.isEmpty()) {
+                cache.removeSpan(spans.first());
+            }
+        }
+    }
+}
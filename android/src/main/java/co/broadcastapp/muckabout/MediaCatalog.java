@@ -0,0 +1,456 @@
+package co.broadcastapp.muckabout;
+
+import android.net.Uri;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The browse tree shown by Android Auto: folders such as stations, shows and their episodes,
+ * plus a built-in folder of recently played items. Items are indexed by media id and stream
+ * URL, so lookups don't depend on the size of the catalog. Folders marked lazy have their
+ * children fetched from JS the first time they are opened.
+ *
+ * Every change reports the folders whose listing actually changed, by child order or by an
+ * item's content hash, so browsers only re-query those. Safe to use from any thread.
+ */
+class MediaCatalog {
+    static final String ROOT_ID = "root";
+    static final String RECENTS_ID = "__recents__";
+    private static final int MAX_RECENTS = 10;
+    // Android Auto asks for pages; other browsers may not, and one Binder transaction can only
+    // carry so much.
+    private static final int MAX_UNPAGED_ITEMS = 500;
+
+    /**
+     * An item as sent from JS, with its place in the tree and a hash of what JS sent. The
+     * item's icon may be swapped for a local copy; artworkUrl keeps the one JS sent.
+     */
+    static final class Entry {
+        final MediaBrowserCompat.MediaItem item;
+        final String parentId;
+        final boolean lazy;
+        final long hash;
+        final String artworkUrl;
+
+        Entry(MediaBrowserCompat.MediaItem item, String parentId, boolean lazy, long hash) {
+            this(item, parentId, lazy, hash, iconUrl(item));
+        }
+
+        private Entry(MediaBrowserCompat.MediaItem item, String parentId, boolean lazy, long hash, String artworkUrl) {
+            this.item = item;
+            this.parentId = parentId != null ? parentId : ROOT_ID;
+            this.lazy = lazy;
+            this.hash = hash;
+            this.artworkUrl = artworkUrl;
+        }
+
+        String getId() {
+            return item.getMediaId();
+        }
+
+        Entry withParent(String parentId) {
+            return this.parentId.equals(parentId) ? this : new Entry(item, parentId, lazy, hash, artworkUrl);
+        }
+
+        Entry withItem(MediaBrowserCompat.MediaItem item) {
+            return new Entry(item, parentId, lazy, hash, artworkUrl);
+        }
+
+        private static String iconUrl(MediaBrowserCompat.MediaItem item) {
+            Uri iconUri = item.getDescription().getIconUri();
+            return iconUri != null ? iconUri.toString() : null;
+        }
+    }
+
+    private final Map<String, Entry> entriesById = new HashMap<>();
+    private final Map<String, String> idsByUrl = new HashMap<>();
+    private final Map<String, List<String>> childrenById = new HashMap<>();
+    private final Set<String> unloadedFolders = new HashSet<>();
+    private final LinkedList<String> recents = new LinkedList<>();
+    private final MediaBrowserCompat.MediaItem recentsFolder;
+
+    MediaCatalog(String recentsTitle) {
+        recentsFolder = new MediaBrowserCompat.MediaItem(new MediaDescriptionCompat.Builder()
+                .setMediaId(RECENTS_ID)
+                .setTitle(recentsTitle)
+                .build(), MediaBrowserCompat.MediaItem.FLAG_BROWSABLE);
+    }
+
+    /**
+     * Replaces the whole catalog. Recents survive if their items are still in it.
+     *
+     * @return the folders whose children changed
+     */
+    synchronized Set<String> setAll(List<Entry> entries) {
+        Map<String, Entry> oldEntries = new HashMap<>(entriesById);
+        Map<String, List<String>> oldChildren = new HashMap<>(childrenById);
+        List<String> oldRecents = new ArrayList<>(recents);
+        entriesById.clear();
+        idsByUrl.clear();
+        childrenById.clear();
+        unloadedFolders.clear();
+        for (Entry entry : entries) {
+            add(entry);
+        }
+        // Lazy folders sent together with their children count as loaded.
+        unloadedFolders.removeAll(childrenById.keySet());
+        for (Entry entry : entriesById.values()) {
+            // A lazy folder keeps the children it already loaded until JS sends new ones.
+            if (entry.lazy && !childrenById.containsKey(entry.getId()) && oldChildren.containsKey(entry.getId())) {
+                reattach(entry.getId(), oldEntries, oldChildren);
+            }
+        }
+        recents.retainAll(entriesById.keySet());
+
+        Set<String> changed = new HashSet<>();
+        Set<String> parents = new HashSet<>(oldChildren.keySet());
+        parents.addAll(childrenById.keySet());
+        for (String parentId : parents) {
+            if (childrenChanged(oldChildren.get(parentId), childrenById.get(parentId), oldEntries)) {
+                changed.add(parentId);
+            }
+        }
+        addRecentsChanges(oldRecents, oldEntries, changed);
+        return changed;
+    }
+
+    private void reattach(String parentId, Map<String, Entry> oldEntries, Map<String, List<String>> oldChildren) {
+        unloadedFolders.remove(parentId);
+        childrenById.put(parentId, new ArrayList<>());
+        for (String id : oldChildren.get(parentId)) {
+            Entry entry = oldEntries.get(id);
+            if (entry != null && !entriesById.containsKey(id)) {
+                add(entry);
+                if (oldChildren.containsKey(id)) {
+                    reattach(id, oldEntries, oldChildren);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the children of one folder, typically in answer to a lazy load.
+     *
+     * @return the folders whose children changed
+     */
+    synchronized Set<String> setChildren(String parentId, List<Entry> entries) {
+        Map<String, Entry> oldEntries = new HashMap<>(entriesById);
+        List<String> oldChildren = childrenById.get(parentId);
+        List<String> oldRecents = new ArrayList<>(recents);
+        removeChildren(parentId);
+        unloadedFolders.remove(parentId);
+        childrenById.put(parentId, new ArrayList<>());
+        for (Entry entry : entries) {
+            add(entry.withParent(parentId));
+        }
+        recents.retainAll(entriesById.keySet());
+
+        Set<String> changed = new HashSet<>();
+        if (childrenChanged(oldChildren, childrenById.get(parentId), oldEntries)) {
+            changed.add(parentId);
+        }
+        addRecentsChanges(oldRecents, oldEntries, changed);
+        return changed;
+    }
+
+    /**
+     * Adds or replaces items by id and removes others with everything below them. A replaced
+     * item keeps its place unless it moved to another folder; a new one goes at the end.
+     *
+     * @return the folders whose children changed
+     */
+    synchronized Set<String> update(List<Entry> upserts, Collection<String> removals) {
+        Map<String, Entry> oldEntries = new HashMap<>(entriesById);
+        List<String> oldRecents = new ArrayList<>(recents);
+        Set<String> changed = new HashSet<>();
+        for (String id : removals) {
+            Entry entry = entriesById.get(id);
+            if (entry != null) {
+                remove(id);
+                childrenById.get(entry.parentId).remove(id);
+                changed.add(entry.parentId);
+            }
+        }
+        for (Entry entry : upserts) {
+            String id = entry.getId();
+            Entry existing = entriesById.get(id);
+            if (existing == null) {
+                add(entry);
+                changed.add(entry.parentId);
+            } else if (!existing.parentId.equals(entry.parentId)) {
+                childrenById.get(existing.parentId).remove(id);
+                changed.add(existing.parentId);
+                replace(existing, entry);
+                getOrCreateChildren(entry.parentId).add(id);
+                changed.add(entry.parentId);
+            } else if (existing.hash != entry.hash) {
+                replace(existing, entry);
+                changed.add(entry.parentId);
+            }
+        }
+        recents.retainAll(entriesById.keySet());
+        addRecentsChanges(oldRecents, oldEntries, changed);
+        return changed;
+    }
+
+    private void add(Entry entry) {
+        String id = entry.getId();
+        if (id == null || entriesById.containsKey(id)) {
+            return;
+        }
+        getOrCreateChildren(entry.parentId).add(id);
+        index(entry);
+    }
+
+    private void replace(Entry existing, Entry entry) {
+        unindex(existing);
+        if (!entry.lazy || !entry.item.isBrowsable()) {
+            // No longer a lazy folder; whatever it loaded stays.
+            unloadedFolders.remove(entry.getId());
+        }
+        index(entry);
+    }
+
+    private void index(Entry entry) {
+        String id = entry.getId();
+        entriesById.put(id, entry);
+        Uri uri = entry.item.getDescription().getMediaUri();
+        if (uri != null) {
+            idsByUrl.put(uri.toString(), id);
+        }
+        if (entry.lazy && entry.item.isBrowsable() && !childrenById.containsKey(id)) {
+            unloadedFolders.add(id);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        entriesById.remove(entry.getId());
+        Uri uri = entry.item.getDescription().getMediaUri();
+        if (uri != null && entry.getId().equals(idsByUrl.get(uri.toString()))) {
+            idsByUrl.remove(uri.toString());
+        }
+    }
+
+    private void remove(String id) {
+        removeChildren(id);
+        unloadedFolders.remove(id);
+        Entry entry = entriesById.get(id);
+        if (entry != null) {
+            unindex(entry);
+        }
+    }
+
+    private void removeChildren(String parentId) {
+        List<String> children = childrenById.remove(parentId);
+        if (children != null) {
+            for (String id : children) {
+                remove(id);
+            }
+        }
+    }
+
+    private List<String> getOrCreateChildren(String parentId) {
+        List<String> children = childrenById.get(parentId);
+        if (children == null) {
+            children = new ArrayList<>();
+            childrenById.put(parentId, children);
+        }
+        return children;
+    }
+
+    private boolean childrenChanged(List<String> oldIds, List<String> newIds, Map<String, Entry> oldEntries) {
+        if (oldIds == null || newIds == null) {
+            return oldIds != newIds;
+        }
+        if (!oldIds.equals(newIds)) {
+            return true;
+        }
+        for (String id : newIds) {
+            Entry oldEntry = oldEntries.get(id);
+            if (oldEntry == null || oldEntry.hash != entriesById.get(id).hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The recents folder shows up in the root once it has something in it.
+    private void addRecentsChanges(List<String> oldRecents, Map<String, Entry> oldEntries, Set<String> changed) {
+        if (childrenChanged(oldRecents, recents, oldEntries)) {
+            changed.add(RECENTS_ID);
+        }
+        if (oldRecents.isEmpty() != recents.isEmpty()) {
+            changed.add(ROOT_ID);
+        }
+    }
+
+    /** Every entry, each folder's children in order, for {@link CatalogStore}. */
+    synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(entriesById.size());
+        for (List<String> children : childrenById.values()) {
+            for (String id : children) {
+                entries.add(entriesById.get(id));
+            }
+        }
+        return entries;
+    }
+
+    /** Recently played ids, most recent first. */
+    synchronized List<String> getRecents() {
+        return new ArrayList<>(recents);
+    }
+
+    /** Loads a saved catalog; recents not in it are dropped. */
+    synchronized void restore(List<Entry> entries, List<String> recentIds) {
+        setAll(entries);
+        recents.clear();
+        for (String id : recentIds) {
+            if (entriesById.containsKey(id) && recents.size() < MAX_RECENTS) {
+                recents.add(id);
+            }
+        }
+    }
+
+    /** The catalog's current entry, so an unchanged item from JS can be reused as is. */
+    synchronized Entry getEntry(String mediaId) {
+        return entriesById.get(mediaId);
+    }
+
+    synchronized MediaBrowserCompat.MediaItem get(String mediaId) {
+        Entry entry = entriesById.get(mediaId);
+        return entry != null ? entry.item : null;
+    }
+
+    synchronized String findStreamUrl(String mediaId) {
+        Entry entry = entriesById.get(mediaId);
+        Uri uri = entry != null ? entry.item.getDescription().getMediaUri() : null;
+        return uri != null ? uri.toString() : null;
+    }
+
+    synchronized String findIdByUrl(String url) {
+        return url != null ? idsByUrl.get(url) : null;
+    }
+
+    /** True for a lazy folder whose children haven't been sent from JS yet. */
+    synchronized boolean needsLoad(String parentId) {
+        return unloadedFolders.contains(parentId);
+    }
+
+    /**
+     * One page of a folder's children; page and pageSize are the browser's paging options, or
+     * negative when it didn't send any. Unknown folders are empty.
+     */
+    synchronized List<MediaBrowserCompat.MediaItem> getChildren(String parentId, int page, int pageSize) {
+        List<MediaBrowserCompat.MediaItem> children = new ArrayList<>();
+        if (RECENTS_ID.equals(parentId)) {
+            for (String id : recents) {
+                children.add(entriesById.get(id).item);
+            }
+        } else {
+            List<String> ids = childrenById.get(parentId);
+            int count = ids != null ? ids.size() : 0;
+            int from = 0;
+            int to = Math.min(count, MAX_UNPAGED_ITEMS);
+            if (page >= 0 && pageSize > 0) {
+                from = (int) Math.min((long) page * pageSize, count);
+                to = Math.min(from + pageSize, count);
+            }
+            for (int i = from; i < to; i++) {
+                children.add(entriesById.get(ids.get(i)).item);
+            }
+            if (ROOT_ID.equals(parentId) && !recents.isEmpty() && to == count) {
+                children.add(recentsFolder);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Moves the item to the front of the recents.
+     *
+     * @return the folders whose children changed
+     */
+    synchronized Set<String> addRecent(String mediaId) {
+        if (mediaId == null || !entriesById.containsKey(mediaId) || mediaId.equals(recents.peekFirst())) {
+            return Collections.emptySet();
+        }
+        Set<String> changed = new HashSet<>();
+        changed.add(RECENTS_ID);
+        if (recents.isEmpty()) {
+            changed.add(ROOT_ID);
+        }
+        recents.remove(mediaId);
+        recents.addFirst(mediaId);
+        while (recents.size() > MAX_RECENTS) {
+            recents.removeLast();
+        }
+        return changed;
+    }
+
+    /**
+     * Stream URLs of the playable items after the given one in its folder, wrapping around.
+     * Without a match, the root folder's items from the top.
+     */
+    synchronized List<String> getNextStreamUrls(String url) {
+        String id = findIdByUrl(url);
+        String parentId = id != null ? entriesById.get(id).parentId : ROOT_ID;
+        List<String> ids = childrenById.get(parentId);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        int start = id != null ? ids.indexOf(id) + 1 : 0;
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Uri uri = entriesById.get(ids.get((start + i) % ids.size())).item.getDescription().getMediaUri();
+            if (uri != null && !uri.toString().equals(url)) {
+                urls.add(uri.toString());
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Swaps in a locally served icon, unless the item has changed its artwork since the download
+     * started. The entry keeps its hash, so the same item sent again from JS keeps the local
+     * icon.
+     *
+     * @param rewritten the file behind the icon was just made again, so browsers showing the
+     *                  item must reload it even if the URI is the same
+     * @return the folders to refresh
+     */
+    synchronized Set<String> replaceIconUri(String mediaId, String sourceUrl, Uri iconUri, boolean rewritten) {
+        Entry entry = entriesById.get(mediaId);
+        if (entry == null || !sourceUrl.equals(entry.artworkUrl)) {
+            return Collections.emptySet();
+        }
+        MediaDescriptionCompat description = entry.item.getDescription();
+        if (iconUri.equals(description.getIconUri()) && !rewritten) {
+            return Collections.emptySet();
+        }
+        entriesById.put(mediaId, entry.withItem(new MediaBrowserCompat.MediaItem(new MediaDescriptionCompat.Builder()
+                .setMediaId(description.getMediaId())
+                .setTitle(description.getTitle())
+                .setSubtitle(description.getSubtitle())
+                .setDescription(description.getDescription())
+                .setIconUri(iconUri)
+                .setMediaUri(description.getMediaUri())
+                .setExtras(description.getExtras())
+                .build(), entry.item.getFlags())));
+        Set<String> changed = new HashSet<>();
+        changed.add(entry.parentId);
+        if (recents.contains(mediaId)) {
+            changed.add(RECENTS_ID);
+        }
+        return changed;
+    }
+}
@@ -7,68 +7,96 @@ import com.getcapacitor.JSObject;
 public class MediaSessionCallback extends MediaSessionCompat.Callback {
     private static final String TAG = "MediaSessionCallback";
 
-    private final RemoteStreamerPlugin plugin;
     private final RemoteStreamerService service;
 
-    MediaSessionCallback(RemoteStreamerPlugin plugin, RemoteStreamerService service) {
-        this.plugin = plugin;
+    MediaSessionCallback(RemoteStreamerService service) {
         this.service = service;
     }
 
     @Override
     public void onPlayFromMediaId(String mediaId, android.os.Bundle extras) {
         // Look up the stream URL from stored media items and start playback
-        if (service != null) {
-            String streamUrl = service.getStreamUrlForMediaId(mediaId);
-            if (streamUrl != null) {
-                service.play(streamUrl);
-            }
+        String streamUrl = service.getStreamUrlForMediaId(mediaId);
+        if (streamUrl != null) {
+            service.play(streamUrl);
+        }
+        // Also notify JS layer, when it's running
+        RemoteStreamerPlugin plugin = service.getPlugin();
+        if (plugin != null) {
+            JSObject data = new JSObject();
+            data.put("mediaId", mediaId);
+            plugin.onPlayerEvent("playFromMediaId", data);
         }
-        // Also notify JS layer
-        JSObject data = new JSObject();
-        data.put("mediaId", mediaId);
-        plugin.onPlayerEvent("playFromMediaId", data);
     }
 
     @Override
     public void onPlay() {
-        plugin.actionCallback("play");
+        RemoteStreamerPlugin plugin = service.getPlugin();
+        if (plugin != null) {
+            plugin.actionCallback("play");
+        } else {
+            // Started by Android Auto with no app running: pick up where the listener left off.
+            service.resumeOrPlayRecent();
+        }
     }
 
     @Override
     public void onPause() {
-        plugin.actionCallback("pause");
+        RemoteStreamerPlugin plugin = service.getPlugin();
+        if (plugin != null) {
+            plugin.actionCallback("pause");
+        } else {
+            service.pause();
+        }
     }
 
     @Override
     public void onSeekTo(long pos) {
         JSObject data = new JSObject();
         data.put("seekTime", pos);
-        plugin.actionCallback("seekto", data);
+        action("seekto", data);
     }
 
     @Override
     public void onRewind() {
-        plugin.actionCallback("seekbackward");
+        action("seekbackward", null);
     }
 
     @Override
     public void onFastForward() {
-        plugin.actionCallback("seekforward");
+        action("seekforward", null);
     }
 
     @Override
     public void onSkipToPrevious() {
-        plugin.actionCallback("previoustrack");
+        action("previoustrack", null);
     }
 
     @Override
     public void onSkipToNext() {
-        plugin.actionCallback("nexttrack");
+        action("nexttrack", null);
     }
 
     @Override
     public void onStop() {
-        plugin.actionCallback("stop");
+        RemoteStreamerPlugin plugin = service.getPlugin();
+        if (plugin != null) {
+            plugin.actionCallback("stop");
+        } else {
+            service.stop();
+        }
+    }
+
+    // Actions that only the app's handlers can carry out; without the app they're dropped.
+    private void action(String action, JSObject data) {
+        RemoteStreamerPlugin plugin = service.getPlugin();
+        if (plugin == null) {
+            return;
+        }
+        if (data != null) {
+            plugin.actionCallback(action, data);
+        } else {
+            plugin.actionCallback(action);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package co.broadcastapp.muckabout;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Follows the default network. It reports when the network switches, is lost, becomes metered
+ * or unmetered, or passes the system's connectivity check ("validated"). Capability callbacks
+ * also fire for signal strength changes, so those are filtered out. Below API 24 there is no
+ * default network callback, so the connectivity broadcast is followed instead; it can't tell
+ * whether a network is validated. Listener calls arrive on the main thread.
+ */
+class NetworkMonitor {
+    interface Listener {
+        void onNetworkChanged(boolean isMetered, boolean isNewNetwork, boolean isValidated);
+    }
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private ConnectivityManager.NetworkCallback callback;
+    private BroadcastReceiver receiver;
+    private Network currentNetwork;
+    // Below API 24 networks are told apart by type, or -1 while disconnected.
+    private int currentNetworkType = -1;
+    private volatile boolean isMetered;
+    // Assume a working network until told otherwise, e.g. below API 24.
+    private volatile boolean isValidated = true;
+
+    NetworkMonitor(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    void start() {
+        if (connectivityManager == null) {
+            return;
+        }
+        isMetered = connectivityManager.isActiveNetworkMetered();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            startLegacy();
+            return;
+        }
+        if (callback != null) {
+            return;
+        }
+        callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+                boolean validated = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                handler.post(() -> {
+                    boolean isNewNetwork = !network.equals(currentNetwork);
+                    if (!isNewNetwork && metered == isMetered && validated == isValidated) {
+                        return;
+                    }
+                    currentNetwork = network;
+                    isMetered = metered;
+                    isValidated = validated;
+                    listener.onNetworkChanged(metered, isNewNetwork, validated);
+                });
+            }
+
+            @Override
+            public void onLost(Network network) {
+                handler.post(() -> {
+                    if (!network.equals(currentNetwork)) {
+                        return;
+                    }
+                    currentNetwork = null;
+                    isValidated = false;
+                    listener.onNetworkChanged(isMetered, false, false);
+                });
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(callback);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void startLegacy() {
+        if (receiver != null) {
+            return;
+        }
+        NetworkInfo active = connectivityManager.getActiveNetworkInfo();
+        currentNetworkType = active != null && active.isConnected() ? active.getType() : -1;
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+                int type = info != null && info.isConnected() ? info.getType() : -1;
+                boolean metered = connectivityManager.isActiveNetworkMetered();
+                if (type == currentNetworkType && metered == isMetered) {
+                    return;
+                }
+                boolean isNewNetwork = type != -1 && type != currentNetworkType;
+                currentNetworkType = type;
+                isMetered = metered;
+                isValidated = type != -1;
+                listener.onNetworkChanged(metered, isNewNetwork, isValidated);
+            }
+        };
+        // Registered without a handler, so onReceive runs on the main thread like the callback.
+        context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    void stop() {
+        if (callback != null) {
+            connectivityManager.unregisterNetworkCallback(callback);
+            callback = null;
+        }
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+    }
+
+    boolean isMetered() {
+        return isMetered;
+    }
+
+    boolean isValidated() {
+        return isValidated;
+    }
+}
@@ -0,0 +1,122 @@
+package co.broadcastapp.muckabout;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+
+/**
+ * The one HTTP client used for streams, playlists and artwork. Sharing it means requests to the
+ * same CDN host reuse warm (and, where the server allows, HTTP/2 multiplexed) connections
+ * instead of paying for a new TCP and TLS handshake on every segment or image.
+ */
+final class NetworkStack {
+    private static final long DNS_TTL_MS = 5 * 60 * 1000;
+
+    private static final ConnectionPool connectionPool = new ConnectionPool(8, 5, TimeUnit.MINUTES);
+    private static final CachingDns dns = new CachingDns();
+    private static int connectTimeoutMs = 8000;
+    private static int readTimeoutMs = 8000;
+    private static OkHttpClient client;
+
+    private NetworkStack() {}
+
+    static synchronized OkHttpClient getClient() {
+        if (client == null) {
+            client = new OkHttpClient.Builder()
+                    .connectionPool(connectionPool)
+                    .dns(dns)
+                    .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        return client;
+    }
+
+    /**
+     * New timeouts apply to requests started afterwards. The client is derived from the current
+     * one, so its dispatcher, connection pool and the rest of its configuration carry over.
+     */
+    static synchronized void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        NetworkStack.connectTimeoutMs = connectTimeoutMs;
+        NetworkStack.readTimeoutMs = readTimeoutMs;
+        if (client != null) {
+            client = client.newBuilder()
+                    .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
+    /** Close idle connections, which may be bound to a network that is gone. */
+    static void evictConnections() {
+        connectionPool.evictAll();
+    }
+
+    /** Forget resolved addresses, e.g. after switching between Wi-Fi and cellular. */
+    static void clearDnsCache() {
+        dns.clear();
+    }
+
+    static String getUserAgent(Context context) {
+        String versionName = "1.0"; // Default version
+        String deviceModel = android.os.Build.MODEL;
+        String osVersion = android.os.Build.VERSION.RELEASE;
+        try {
+            versionName = context.getPackageManager()
+            .getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (Exception e) {
+            Log.e("NetworkStack", "Failed to get version name", e);
+        }
+        return "WNYC-App/" + versionName + " (Android " + osVersion + "; " + deviceModel + ")";
+    }
+
+    static HttpDataSource.Factory createDataSourceFactory(String userAgent) {
+        // Look the client up per request so timeout changes reach existing factories.
+        return new OkHttpDataSource.Factory(request -> getClient().newCall(request))
+                .setUserAgent(userAgent);
+    }
+
+    private static final class CachingDns implements Dns {
+        private static final class Entry {
+            final List<InetAddress> addresses;
+            final long expiresAt;
+
+            Entry(List<InetAddress> addresses, long expiresAt) {
+                this.addresses = addresses;
+                this.expiresAt = expiresAt;
+            }
+        }
+
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long now = SystemClock.elapsedRealtime();
+            Entry entry = entries.get(hostname);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.addresses;
+            }
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            entries.put(hostname, new Entry(addresses, now + DNS_TTL_MS));
+            return addresses;
+        }
+
+        void clear() {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package co.broadcastapp.muckabout;
+
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts load retries and playback outages. Retries are recorded from the loader threads,
+ * outages from the main thread.
+ */
+class NetworkStats {
+    private final AtomicIntegerArray retries = new AtomicIntegerArray(RetryPolicy.ErrorClass.values().length);
+    private int outages = 0;
+    private int reconnects = 0;
+    private long outageStartTime = 0;
+    private long lastOutageMs = 0;
+    private long totalOutageMs = 0;
+
+    void recordRetry(RetryPolicy.ErrorClass errorClass) {
+        retries.incrementAndGet(errorClass.ordinal());
+    }
+
+    /** Playback stopped on a network error; ignored while an outage is already open. */
+    synchronized void outageStarted() {
+        if (outageStartTime == 0) {
+            outageStartTime = SystemClock.elapsedRealtime();
+            outages++;
+        }
+    }
+
+    /** Playback is going again after an outage, either by itself or through a reconnect. */
+    synchronized void outageEnded(boolean reconnected) {
+        if (outageStartTime == 0) {
+            return;
+        }
+        lastOutageMs = SystemClock.elapsedRealtime() - outageStartTime;
+        totalOutageMs += lastOutageMs;
+        outageStartTime = 0;
+        if (reconnected) {
+            reconnects++;
+        }
+    }
+
+    synchronized boolean isInOutage() {
+        return outageStartTime != 0;
+    }
+
+    synchronized JSObject toJSObject() {
+        JSObject retriesByClass = new JSObject();
+        int totalRetries = 0;
+        for (RetryPolicy.ErrorClass errorClass : RetryPolicy.ErrorClass.values()) {
+            int count = retries.get(errorClass.ordinal());
+            retriesByClass.put(errorClass.name().toLowerCase(Locale.ROOT), count);
+            totalRetries += count;
+        }
+        return new JSObject()
+                .put("retries", totalRetries)
+                .put("retriesByClass", retriesByClass)
+                .put("outages", outages)
+                .put("reconnects", reconnects)
+                .put("inOutage", outageStartTime != 0)
+                .put("lastOutageDuration", lastOutageMs / 1000.0)
+                .put("totalOutageDuration", totalOutageMs / 1000.0);
+    }
+}
@@ -0,0 +1,166 @@
+package co.broadcastapp.muckabout;
+
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.source.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaLoadData;
+
+import java.io.IOException;
+
+/**
+ * Quality-of-experience numbers for the current playback session, which starts with each
+ * play() and spans any queue items that follow. It records time to first audio, stalls
+ * (buffering after playback has started, not caused by a seek), variant switches and loads.
+ * Player callbacks arrive on the main thread and snapshots can be taken from any thread.
+ */
+class PlaybackStatsCollector implements AnalyticsListener {
+    private String url = null;
+    private long sessionStartTime = 0;
+    private long timeToFirstAudioMs = C.TIME_UNSET;
+    private boolean playWhenReady = false;
+    private boolean isSeeking = false;
+    private int rebufferCount = 0;
+    private long rebufferStartTime = 0;
+    private long totalRebufferMs = 0;
+    private long playingStartTime = 0;
+    private long totalPlayingMs = 0;
+    private int bitrate = Format.NO_VALUE;
+    private int bitrateSwitches = 0;
+    private long bytesLoaded = 0;
+    private int loadsCompleted = 0;
+    private int loadErrors = 0;
+
+    /**
+     * Starts a new session; call it right before preparing the player.
+     *
+     * @param requestedAtMs when playback was asked for, in elapsedRealtime; time to first audio
+     *                      counts from here
+     */
+    synchronized void startSession(String url, long requestedAtMs) {
+        this.url = url;
+        sessionStartTime = requestedAtMs;
+        timeToFirstAudioMs = C.TIME_UNSET;
+        isSeeking = false;
+        rebufferCount = 0;
+        rebufferStartTime = 0;
+        totalRebufferMs = 0;
+        playingStartTime = 0;
+        totalPlayingMs = 0;
+        bitrate = Format.NO_VALUE;
+        bitrateSwitches = 0;
+        bytesLoaded = 0;
+        loadsCompleted = 0;
+        loadErrors = 0;
+    }
+
+    @Override
+    public synchronized void onPlayWhenReadyChanged(EventTime eventTime, boolean playWhenReady, int reason) {
+        this.playWhenReady = playWhenReady;
+    }
+
+    @Override
+    public synchronized void onPlaybackStateChanged(EventTime eventTime, int state) {
+        if (sessionStartTime == 0) {
+            return;
+        }
+        if (state == Player.STATE_READY) {
+            if (timeToFirstAudioMs == C.TIME_UNSET) {
+                timeToFirstAudioMs = eventTime.realtimeMs - sessionStartTime;
+            }
+            endRebuffer(eventTime.realtimeMs);
+            isSeeking = false;
+        } else if (state == Player.STATE_BUFFERING) {
+            if (timeToFirstAudioMs != C.TIME_UNSET && playWhenReady && !isSeeking && rebufferStartTime == 0) {
+                rebufferCount++;
+                rebufferStartTime = eventTime.realtimeMs;
+            }
+        } else {
+            endRebuffer(eventTime.realtimeMs);
+        }
+    }
+
+    @Override
+    public synchronized void onIsPlayingChanged(EventTime eventTime, boolean isPlaying) {
+        if (isPlaying) {
+            playingStartTime = eventTime.realtimeMs;
+        } else if (playingStartTime != 0) {
+            totalPlayingMs += eventTime.realtimeMs - playingStartTime;
+            playingStartTime = 0;
+        }
+    }
+
+    @Override
+    public synchronized void onPositionDiscontinuity(EventTime eventTime, Player.PositionInfo oldPosition, Player.PositionInfo newPosition, int reason) {
+        if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+            // Buffering after a seek is expected, not a stall.
+            isSeeking = true;
+        }
+    }
+
+    @Override
+    public synchronized void onDownstreamFormatChanged(EventTime eventTime, MediaLoadData mediaLoadData) {
+        Format format = mediaLoadData.trackFormat;
+        if (format == null || format.bitrate == Format.NO_VALUE || format.bitrate == bitrate) {
+            return;
+        }
+        if (bitrate != Format.NO_VALUE) {
+            bitrateSwitches++;
+        }
+        bitrate = format.bitrate;
+    }
+
+    @Override
+    public synchronized void onLoadCompleted(EventTime eventTime, LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData) {
+        bytesLoaded += loadEventInfo.bytesLoaded;
+        loadsCompleted++;
+    }
+
+    @Override
+    public synchronized void onLoadError(EventTime eventTime, LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData, IOException error, boolean wasCanceled) {
+        bytesLoaded += loadEventInfo.bytesLoaded;
+        loadErrors++;
+    }
+
+    private void endRebuffer(long now) {
+        if (rebufferStartTime != 0) {
+            totalRebufferMs += now - rebufferStartTime;
+            rebufferStartTime = 0;
+        }
+    }
+
+    /**
+     * Durations are in seconds and include a stall or playing stretch still in progress.
+     *
+     * @param liveOffsetMs the current distance from the live edge, or C.TIME_UNSET
+     */
+    synchronized JSObject toJSObject(long liveOffsetMs) {
+        long now = SystemClock.elapsedRealtime();
+        long rebufferMs = totalRebufferMs + (rebufferStartTime != 0 ? now - rebufferStartTime : 0);
+        long playingMs = totalPlayingMs + (playingStartTime != 0 ? now - playingStartTime : 0);
+        JSObject data = new JSObject()
+                .put("url", url)
+                .put("sessionDuration", sessionStartTime != 0 ? (now - sessionStartTime) / 1000.0 : 0)
+                .put("playingTime", playingMs / 1000.0)
+                .put("rebufferCount", rebufferCount)
+                .put("rebufferDuration", rebufferMs / 1000.0)
+                .put("bitrateSwitches", bitrateSwitches)
+                .put("bytesLoaded", bytesLoaded)
+                .put("loadsCompleted", loadsCompleted)
+                .put("loadErrors", loadErrors);
+        if (timeToFirstAudioMs != C.TIME_UNSET) {
+            data.put("timeToFirstAudio", timeToFirstAudioMs / 1000.0);
+        }
+        if (bitrate != Format.NO_VALUE) {
+            data.put("bitrate", bitrate);
+        }
+        if (liveOffsetMs != C.TIME_UNSET) {
+            data.put("liveOffset", liveOffsetMs / 1000.0);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,112 @@
+package co.broadcastapp.muckabout;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * A LoadControl whose thresholds come from a {@link BufferProfile} that can be swapped between
+ * media sources. DefaultLoadControl fixes its thresholds at construction, which would force a
+ * new player for every switch between live and on-demand content. The buffering rules mirror
+ * DefaultLoadControl's.
+ */
+class ProfileLoadControl implements LoadControl {
+    private static final long MIN_BUFFER_FLOOR_US = 500_000;
+
+    private final DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    private volatile BufferProfile profile;
+    private boolean isLoading;
+
+    ProfileLoadControl(BufferProfile profile) {
+        this.profile = profile;
+    }
+
+    /** Takes effect from the next loading decision; call it before preparing a new source. */
+    void setProfile(BufferProfile profile) {
+        this.profile = profile;
+        allocator.setTargetBufferSize(profile.targetBufferBytes);
+    }
+
+    BufferProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public void onPrepared() {
+        reset(false);
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups, ExoTrackSelection[] trackSelections) {
+        allocator.setTargetBufferSize(profile.targetBufferBytes);
+    }
+
+    @Override
+    public void onStopped() {
+        reset(true);
+    }
+
+    @Override
+    public void onReleased() {
+        reset(true);
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public long getBackBufferDurationUs() {
+        return Util.msToUs(profile.backBufferMs);
+    }
+
+    @Override
+    public boolean retainBackBufferFromKeyframe() {
+        return false;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
+        BufferProfile profile = this.profile;
+        boolean targetBufferSizeReached = allocator.getTotalBytesAllocated() >= profile.targetBufferBytes;
+        long minBufferUs = Util.msToUs(profile.minBufferMs);
+        long maxBufferUs = Util.msToUs(profile.maxBufferMs);
+        if (playbackSpeed > 1) {
+            // Faster playback drains the buffer sooner, so keep more media ahead.
+            minBufferUs = Math.min(Util.getMediaDurationForPlayoutDuration(minBufferUs, playbackSpeed), maxBufferUs);
+        }
+        minBufferUs = Math.max(minBufferUs, MIN_BUFFER_FLOOR_US);
+        if (bufferedDurationUs < minBufferUs) {
+            isLoading = !targetBufferSizeReached;
+        } else if (bufferedDurationUs >= maxBufferUs || targetBufferSizeReached) {
+            isLoading = false;
+        }
+        return isLoading;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed, boolean rebuffering, long targetLiveOffsetUs) {
+        BufferProfile profile = this.profile;
+        bufferedDurationUs = Util.getPlayoutDurationForMediaDuration(bufferedDurationUs, playbackSpeed);
+        long minBufferUs = Util.msToUs(rebuffering ? profile.bufferForPlaybackAfterRebufferMs : profile.bufferForPlaybackMs);
+        if (targetLiveOffsetUs != C.TIME_UNSET) {
+            minBufferUs = Math.min(targetLiveOffsetUs / 2, minBufferUs);
+        }
+        return minBufferUs <= 0
+                || bufferedDurationUs >= minBufferUs
+                || allocator.getTotalBytesAllocated() >= profile.targetBufferBytes;
+    }
+
+    private void reset(boolean resetAllocator) {
+        isLoading = false;
+        if (resetAllocator) {
+            allocator.reset();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package co.broadcastapp.muckabout;
+
+import android.app.Notification;
+
+import com.google.android.exoplayer2.offline.Download;
+import com.google.android.exoplayer2.offline.DownloadManager;
+import com.google.android.exoplayer2.offline.DownloadNotificationHelper;
+import com.google.android.exoplayer2.offline.DownloadService;
+import com.google.android.exoplayer2.scheduler.PlatformScheduler;
+import com.google.android.exoplayer2.scheduler.Scheduler;
+
+import java.util.List;
+
+/**
+ * Runs episode downloads in the foreground with a progress notification. When requirements
+ * such as Wi-Fi or charging aren't met, the platform scheduler restarts the service once they
+ * are, and partial downloads continue where they stopped.
+ */
+public class RemoteStreamerDownloadService extends DownloadService {
+    private static final int NOTIFICATION_ID = 2;
+    private static final int JOB_ID = 1;
+    private static final String CHANNEL_ID = "downloads";
+
+    private DownloadNotificationHelper notificationHelper;
+
+    public RemoteStreamerDownloadService() {
+        super(NOTIFICATION_ID, DEFAULT_FOREGROUND_NOTIFICATION_UPDATE_INTERVAL, CHANNEL_ID, R.string.download_channel_name, 0);
+    }
+
+    @Override
+    protected DownloadManager getDownloadManager() {
+        return DownloadTracker.get(this).getDownloadManager();
+    }
+
+    @Override
+    protected Scheduler getScheduler() {
+        return new PlatformScheduler(this, JOB_ID);
+    }
+
+    @Override
+    protected Notification getForegroundNotification(List<Download> downloads, int notMetRequirements) {
+        if (notificationHelper == null) {
+            notificationHelper = new DownloadNotificationHelper(this, CHANNEL_ID);
+        }
+        return notificationHelper.buildProgressNotification(this, R.drawable.ic_baseline_wnyc_white, null, null, downloads, notMetRequirements);
+    }
+}
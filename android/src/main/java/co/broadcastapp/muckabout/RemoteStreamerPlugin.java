@@ -6,8 +6,6 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
@@ -15,27 +13,29 @@ import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 
 import android.util.Log;
 
 import androidx.core.content.ContextCompat;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.MediaMetadata;
+import com.google.android.exoplayer2.offline.DownloadRequest;
+import com.google.android.exoplayer2.offline.DownloadService;
+import com.google.android.exoplayer2.util.Util;
 import java.util.Set;
 import java.util.stream.Stream;
 import org.json.JSONException;
 import java.io.IOException;
-import java.net.URL;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.io.InputStream;
 
-import android.support.v4.media.MediaBrowserCompat;
-import android.support.v4.media.MediaDescriptionCompat;
 import android.net.Uri;
 import org.json.JSONArray;
 import java.util.ArrayList;
@@ -43,21 +43,68 @@ import java.util.List;
 
 @CapacitorPlugin(name = "RemoteStreamer")
 public class RemoteStreamerPlugin extends Plugin {
-    private boolean isLiveStream = false;
-    private RemoteStreamerService service = null;
+    private volatile RemoteStreamerService service = null;
+
+    /** Work that needs the bound service; queued until onServiceConnected when not yet bound. */
+    interface ServiceCommand {
+        void run(RemoteStreamerService service);
+    }
+
+    private static final class PendingCommand {
+        final PluginCall call;
+        final ServiceCommand command;
+
+        PendingCommand(PluginCall call, ServiceCommand command) {
+            this.call = call;
+            this.command = command;
+        }
+    }
+
+    private final List<PendingCommand> pendingCommands = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final EventBridge events = new EventBridge(new EventBridge.Sink() {
+        @Override
+        public boolean hasListeners(String eventName) {
+            return hasEventListeners(eventName);
+        }
+
+        @Override
+        public void send(String eventName, JSObject data) {
+            notifyListeners(eventName, data);
+        }
+    });
+    private boolean isBindingService = false;
+    // Whether play() has started the service while it wasn't bound yet; once bound, the service knows.
+    private boolean isServiceStarted = false;
 
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
             RemoteStreamerService.LocalBinder binder = (RemoteStreamerService.LocalBinder) iBinder;
-            service = binder.getService();
+            RemoteStreamerService connected = binder.getService();
             Intent intent = new Intent(getActivity(), getActivity().getClass());
-            service.connectAndInitialize(RemoteStreamerPlugin.this, intent);
+            connected.connectAndInitialize(RemoteStreamerPlugin.this, intent);
+
+            // Queued commands run before any that arrive from now on, so JS sees them in order.
+            synchronized (pendingCommands) {
+                service = connected;
+                isBindingService = false;
+                for (PendingCommand pending : pendingCommands) {
+                    pending.command.run(connected);
+                }
+                pendingCommands.clear();
+            }
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
             Log.d("Stream", "Disconnected from MediaSessionService");
+            // The binding comes back by itself once the service is recreated.
+            synchronized (pendingCommands) {
+                service = null;
+                isBindingService = true;
+                isServiceStarted = false;
+            }
         }
     };
 
@@ -65,12 +112,52 @@ public class RemoteStreamerPlugin extends Plugin {
     @Override
     public void load() {
         super.load();
+        DownloadTracker.get(getContext()).setListener(events::emit);
     }
 
+    /** Starts the service, which then runs in the foreground with its notification. */
     public void startMediaService() {
-        Intent intent = new Intent(getActivity(), RemoteStreamerService.class);
-        ContextCompat.startForegroundService(getContext(), intent);
-        getContext().bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
+        ContextCompat.startForegroundService(getContext(), new Intent(getContext(), RemoteStreamerService.class));
+    }
+
+    /**
+     * Runs the command now if the service is bound, otherwise binds it and replays the command
+     * once it is connected. Binding alone doesn't put the service in the foreground, so
+     * configuration can be sent before anything plays; startService is for commands that
+     * start playback. If the service can't be bound, every queued call is rejected.
+     */
+    private void withService(PluginCall call, boolean startService, ServiceCommand command) {
+        RemoteStreamerService bound;
+        List<PendingCommand> failed = null;
+        synchronized (pendingCommands) {
+            bound = service;
+            // stop() takes the service out of the started state, so a later play starts it again.
+            if (startService && !(bound != null ? bound.isStarted() : isServiceStarted)) {
+                isServiceStarted = true;
+                startMediaService();
+            }
+            if (bound == null) {
+                pendingCommands.add(new PendingCommand(call, command));
+                if (!isBindingService) {
+                    Intent intent = new Intent(getContext(), RemoteStreamerService.class);
+                    isBindingService = getContext().bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
+                    if (!isBindingService) {
+                        failed = new ArrayList<>(pendingCommands);
+                        pendingCommands.clear();
+                    }
+                }
+                if (failed == null) {
+                    return;
+                }
+            }
+        }
+        if (failed != null) {
+            for (PendingCommand pending : failed) {
+                pending.call.reject("Could not bind the playback service");
+            }
+            return;
+        }
+        command.run(bound);
     }
 
 
@@ -82,76 +169,335 @@ public class RemoteStreamerPlugin extends Plugin {
             return;
         }
 
-        if (service != null) {
-            List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
-            for (int i = 0; i < items.length(); i++) {
-                try {
-                    JSObject item = JSObject.fromJSONObject(items.getJSONObject(i));
-                    String id = item.getString("id");
-                    String title = item.getString("title");
-                    String artist = item.getString("artist");
-                    String imageUrl = item.getString("imageUrl");
-                    String streamUrl = item.getString("streamUrl");
-
-                    MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
-                            .setMediaId(id)
-                            .setTitle(title)
-                            .setSubtitle(artist)
-                            .setIconUri(Uri.parse(imageUrl))
-                            .setMediaUri(Uri.parse(streamUrl))
-                            .build();
-
-                    mediaItems.add(new MediaBrowserCompat.MediaItem(description, MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
-                } catch (JSONException e) {
-                    Log.e("streamer", "Error parsing media item at index " + i, e);
-                }
+        String parentId = call.getString("parentId");
+        Integer prebufferCount = call.getInt("prebufferCount");
+        withService(call, false, bound -> {
+            if (prebufferCount != null) {
+                bound.setPrebufferCount(prebufferCount);
             }
-            service.setMediaItems(mediaItems);
+            // Parsed against the current catalog so unchanged items aren't rebuilt.
+            bound.setMediaItems(parentId, BrowseItems.parse(items, parentId, bound.getCatalog()));
             call.resolve();
-        } else {
-            call.reject("Service not initialized");
+        });
+    }
+
+    @PluginMethod
+    public void updateMediaItems(PluginCall call) {
+        JSONArray upserts = call.getArray("upsert", new JSArray());
+        List<String> removals;
+        try {
+            removals = call.getArray("remove", new JSArray()).toList();
+        } catch (JSONException e) {
+            call.reject("remove must be an array of ids");
+            return;
         }
+
+        withService(call, false, bound -> {
+            bound.updateMediaItems(BrowseItems.parse(upserts, null, bound.getCatalog()), removals);
+            call.resolve();
+        });
     }
 
     @PluginMethod
     public void play(PluginCall call) {
+        // Time to first audio counts from here, so it includes starting and binding the service.
+        long requestedAtMs = SystemClock.elapsedRealtime();
         String url = call.getString("url");
         if (url == null) {
             call.reject("URL is required");
             return;
         }
 
-        if (service == null) {
-            startMediaService();
-            // Wait for service to connect? Ideally we should queue the command or wait.
-            // The original code waited with sleep loop.
-            int retries = 0;
-            while (service == null && retries < 20) {
-                try {
-                    Thread.sleep(100);
-                    retries++;
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        BufferProfile bufferProfile = null;
+        String profileName = call.getString("bufferProfile");
+        JSObject bufferOverrides = call.getObject("buffer");
+        if (profileName != null || bufferOverrides != null) {
+            bufferProfile = profileName != null
+                    ? BufferProfile.named(profileName)
+                    : BufferProfile.forStream(getContext(), url.contains(".m3u8"));
+            if (bufferProfile == null) {
+                call.reject("Unknown buffer profile " + profileName);
+                return;
+            }
+            if (bufferOverrides != null) {
+                bufferProfile = bufferProfile.withOverrides(bufferOverrides);
+            }
+        }
+
+        final BufferProfile selectedProfile = bufferProfile;
+        Boolean useStreamMetadata = call.getBoolean("useStreamMetadata", true);
+        withService(call, true, bound -> {
+            bound.setUseStreamMetadata(useStreamMetadata);
+            bound.play(url, selectedProfile, requestedAtMs);
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void enqueue(PluginCall call) {
+        JSONArray items = call.getArray("items");
+        if (items == null) {
+            call.reject("items array is required");
+            return;
+        }
+
+        List<MediaItem> queueItems = new ArrayList<>();
+        for (int i = 0; i < items.length(); i++) {
+            try {
+                JSObject item = JSObject.fromJSONObject(items.getJSONObject(i));
+                String id = item.getString("id");
+                String url = item.getString("url");
+                if (id == null || url == null) {
+                    call.reject("Queue item at index " + i + " needs an id and a url");
+                    return;
+                }
+                MediaMetadata.Builder metadata = new MediaMetadata.Builder()
+                        .setTitle(item.getString("title"))
+                        .setArtist(item.getString("artist"))
+                        .setAlbumTitle(item.getString("album"));
+                String imageUrl = item.getString("imageUrl");
+                if (imageUrl != null) {
+                    metadata.setArtworkUri(Uri.parse(imageUrl));
                 }
+                queueItems.add(new MediaItem.Builder()
+                        .setMediaId(id)
+                        .setUri(url)
+                        .setMediaMetadata(metadata.build())
+                        .build());
+            } catch (JSONException e) {
+                call.reject("Can't parse queue item at index " + i, e);
+                return;
             }
         }
+        int index = call.getInt("index", -1);
+        withService(call, false, bound -> {
+            bound.enqueue(queueItems, index);
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void removeFromQueue(PluginCall call) {
+        Integer index = call.getInt("index");
+        if (index == null) {
+            call.reject("index is required");
+            return;
+        }
+        withService(call, false, bound -> {
+            bound.removeFromQueue(index);
+            call.resolve();
+        });
+    }
 
-        if (service != null) {
-            service.play(url);
+    @PluginMethod
+    public void moveInQueue(PluginCall call) {
+        Integer from = call.getInt("from");
+        Integer to = call.getInt("to");
+        if (from == null || to == null) {
+            call.reject("from and to are required");
+            return;
+        }
+        withService(call, false, bound -> {
+            bound.moveInQueue(from, to);
             call.resolve();
-        } else {
-            call.reject("Service failed to start");
+        });
+    }
+
+    @PluginMethod
+    public void skipTo(PluginCall call) {
+        Integer index = call.getInt("index");
+        if (index == null) {
+            call.reject("index is required");
+            return;
         }
+        withService(call, true, bound -> {
+            bound.skipTo(index);
+            call.resolve();
+        });
     }
 
+    @PluginMethod
+    public void skipToNext(PluginCall call) {
+        withService(call, false, bound -> {
+            bound.skipToNext();
+            call.resolve();
+        });
+    }
 
+    @PluginMethod
+    public void skipToPrevious(PluginCall call) {
+        withService(call, false, bound -> {
+            bound.skipToPrevious();
+            call.resolve();
+        });
+    }
 
     @PluginMethod
-    public void pause(PluginCall call) {
-        pause();
+    public void getQueue(PluginCall call) {
+        RemoteStreamerService bound = service;
+        call.resolve(bound != null ? bound.getQueue() : new JSObject().put("items", new JSArray()).put("currentIndex", -1));
+    }
+
+    @PluginMethod
+    public void downloadEpisode(PluginCall call) {
+        String id = call.getString("id");
+        String url = call.getString("url");
+        if (id == null || url == null) {
+            call.reject("id and url are required");
+            return;
+        }
+        DownloadRequest request = new DownloadRequest.Builder(id, Uri.parse(url))
+                .setData(Util.getUtf8Bytes(call.getString("title", "")))
+                .build();
+        DownloadService.sendAddDownload(getContext(), RemoteStreamerDownloadService.class, request, false);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void removeDownload(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null) {
+            call.reject("id is required");
+            return;
+        }
+        DownloadService.sendRemoveDownload(getContext(), RemoteStreamerDownloadService.class, id, false);
         call.resolve();
     }
 
+    @PluginMethod
+    public void getDownloads(PluginCall call) {
+        call.resolve(new JSObject().put("downloads", DownloadTracker.get(getContext()).getDownloads()));
+    }
+
+    @PluginMethod
+    public void setDownloadOptions(PluginCall call) {
+        boolean unmeteredOnly = call.getBoolean("unmeteredOnly", false);
+        boolean requiresCharging = call.getBoolean("requiresCharging", false);
+        Integer maxParallelDownloads = call.getInt("maxParallelDownloads");
+        if (maxParallelDownloads != null && maxParallelDownloads < 1) {
+            call.reject("maxParallelDownloads must be at least 1");
+            return;
+        }
+        DownloadService.sendSetRequirements(getContext(), RemoteStreamerDownloadService.class,
+                DownloadTracker.requirements(unmeteredOnly, requiresCharging), false);
+        // The download manager only takes calls on the thread that created it.
+        mainHandler.post(() ->
+                DownloadTracker.get(getContext()).setOptions(unmeteredOnly, requiresCharging, maxParallelDownloads));
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setCacheSize(PluginCall call) {
+        Long maxBytes = call.getLong("maxBytes");
+        if (maxBytes == null || maxBytes < 0) {
+            call.reject("maxBytes is required");
+            return;
+        }
+        withService(call, false, bound -> {
+            bound.setCacheSize(maxBytes);
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void setLiveLatency(PluginCall call) {
+        Double targetOffset = call.getDouble("targetOffset");
+        long targetOffsetMs = targetOffset != null && targetOffset >= 0 ? (long) (targetOffset * 1000) : C.TIME_UNSET; // s to ms
+        float minPlaybackSpeed = call.getFloat("minPlaybackSpeed", 0.97f);
+        float maxPlaybackSpeed = call.getFloat("maxPlaybackSpeed", 1.03f);
+        if (minPlaybackSpeed <= 0 || minPlaybackSpeed > 1 || maxPlaybackSpeed < 1) {
+            call.reject("minPlaybackSpeed must be in (0, 1] and maxPlaybackSpeed at least 1");
+            return;
+        }
+        withService(call, false, bound -> {
+            bound.setLiveLatency(targetOffsetMs, minPlaybackSpeed, maxPlaybackSpeed);
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void setTimeshift(PluginCall call) {
+        Boolean enabled = call.getBoolean("enabled");
+        if (enabled == null) {
+            call.reject("enabled is required");
+            return;
+        }
+        Integer minutes = call.getInt("minutes", 10);
+        if (minutes < 1 || minutes > 30) {
+            call.reject("minutes must be between 1 and 30");
+            return;
+        }
+        withService(call, false, bound -> {
+            bound.setTimeshift(enabled ? minutes : 0);
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void setDataSaver(PluginCall call) {
+        Boolean enabled = call.getBoolean("enabled");
+        if (enabled == null) {
+            call.reject("enabled is required");
+            return;
+        }
+        Integer maxBitrate = call.getInt("maxBitrate", 64000);
+        withService(call, false, bound -> {
+            bound.setDataSaver(enabled, maxBitrate);
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void setNetworkTimeouts(PluginCall call) {
+        Double connectTimeout = call.getDouble("connectTimeout");
+        Double readTimeout = call.getDouble("readTimeout");
+        if (connectTimeout == null || readTimeout == null || connectTimeout <= 0 || readTimeout <= 0) {
+            call.reject("connectTimeout and readTimeout are required");
+            return;
+        }
+        NetworkStack.setTimeouts((int) (connectTimeout * 1000), (int) (readTimeout * 1000)); // s to ms
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getNetworkStats(PluginCall call) {
+        RemoteStreamerService bound = service;
+        call.resolve(bound != null ? bound.getNetworkStats() : new NetworkStats().toJSObject());
+    }
+
+    @PluginMethod
+    public void getPlaybackStats(PluginCall call) {
+        RemoteStreamerService bound = service;
+        if (bound == null) {
+            call.reject("Nothing has been played yet");
+            return;
+        }
+        // The player may only be read on the main thread.
+        mainHandler.post(() -> call.resolve(bound.getPlaybackStats()));
+    }
+
+    @PluginMethod
+    public void setTimeUpdateInterval(PluginCall call) {
+        Double interval = call.getDouble("interval");
+        if (interval == null || interval <= 0) {
+            call.reject("interval is required");
+            return;
+        }
+        Double backgroundInterval = call.getDouble("backgroundInterval", Math.max(interval, 5.0));
+        withService(call, false, bound -> {
+            bound.setTimeUpdateInterval((long) (interval * 1000), (long) (backgroundInterval * 1000)); // s to ms
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void pause(PluginCall call) {
+        withService(call, false, bound -> {
+            bound.pause();
+            call.resolve();
+        });
+    }
+
     private void pause() {
         if (service != null) {
             service.pause();
@@ -160,8 +506,10 @@ public class RemoteStreamerPlugin extends Plugin {
 
     @PluginMethod
     public void resume(PluginCall call) {
-        resume();
-        call.resolve();
+        withService(call, false, bound -> {
+            bound.resume();
+            call.resolve();
+        });
     }
 
     private void resume() {
@@ -179,8 +527,11 @@ public class RemoteStreamerPlugin extends Plugin {
             call.reject("Can't parse position " + call.getData().toString());
             return;
         }
-        seekTo(position);
-        call.resolve();
+        final Long target = position;
+        withService(call, false, bound -> {
+            bound.seekTo(target);
+            call.resolve();
+        });
     }
 
     private void seekTo(Long position) {
@@ -191,8 +542,10 @@ public class RemoteStreamerPlugin extends Plugin {
 
     @PluginMethod
     public void stop(PluginCall call) {
-        stop();
-        call.resolve();
+        withService(call, false, bound -> {
+            bound.stop(false);
+            call.resolve();
+        });
     }
 
     public void stop() {
@@ -205,6 +558,19 @@ public class RemoteStreamerPlugin extends Plugin {
         }
     }
 
+    @PluginMethod
+    public void setPlaybackRate(PluginCall call) {
+        Float rate = call.getFloat("rate");
+        if (rate == null || rate <= 0) {
+            call.reject("rate is required");
+            return;
+        }
+        withService(call, false, bound -> {
+            bound.setPlaybackRate(rate);
+            call.resolve();
+        });
+    }
+
     @PluginMethod
     public void setNowPlayingInfo(PluginCall call) throws JSONException, IOException {
         String title = call.getData().getString("title", "WNYC");
@@ -212,34 +578,14 @@ public class RemoteStreamerPlugin extends Plugin {
         String album = call.getString("album", "");
         String artwork = call.getString("imageUrl", "");
 
-        if (service != null) {
-            service.setTitle(title);
-            service.setArtist(artist);
-            service.setAlbum(album);
-            service.setArtwork(getImage(artwork));
-            service.update();
-        } else {
-            call.reject("Service is not initialized");
-            return;
-        }
-
-        call.resolve();
-    }
-
-    private Bitmap getImage(String url) {
-        try {
-            URL imageUrl = new URL(url);
-            HttpURLConnection connection = (HttpURLConnection) imageUrl.openConnection();
-            connection.setDoInput(true);
-            connection.connect();
-            InputStream input = connection.getInputStream();
-            return BitmapFactory.decodeStream(input);
-        } catch (MalformedURLException mfue) {
-            Log.e("streamer", "bad image URL " + url);
-        } catch (IOException ioe) {
-            Log.e("streamer", "could not parse image " + url);
-        }
-        return null;
+        withService(call, false, bound -> {
+            bound.setTitle(title);
+            bound.setArtist(artist);
+            bound.setAlbum(album);
+            bound.setArtworkUrl(artwork);
+            bound.update();
+            call.resolve();
+        });
     }
 
     @PluginMethod
@@ -256,6 +602,22 @@ public class RemoteStreamerPlugin extends Plugin {
 
 
 
+    @Override
+    protected void handleOnPause() {
+        super.handleOnPause();
+        if (service != null) {
+            service.setBackgrounded(true);
+        }
+    }
+
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+        if (service != null) {
+            service.setBackgrounded(false);
+        }
+    }
+
     @Override
     protected void handleOnDestroy() {
         // Do not stop player here to allow background playback
@@ -266,17 +628,19 @@ public class RemoteStreamerPlugin extends Plugin {
 
     @PluginMethod
     public void setVolume(PluginCall call) {
-        Float volume;
-        try {
-            volume = (float) call.getData().getDouble("volume");
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
-        if (service != null) {
-            service.setVolume(volume);
+        Float volume = call.getFloat("volume");
+        if (volume == null || volume < 0) {
+            call.reject("volume is required");
+            return;
         }
+        withService(call, false, bound -> {
+            bound.setVolume(volume);
+            call.resolve();
+        });
     }
 
+    private static final long SKIP_INTERVAL_MS = 10000;
+
     public void actionCallback(String action) {
         actionCallback(action, new JSObject());
     }
@@ -292,14 +656,30 @@ public class RemoteStreamerPlugin extends Plugin {
                 break;
 
             case "nexttrack":
-                if (service != null) {
-                    seekTo(service.getCurrentPosition() + 10000);
+                if (service != null && service.hasNextQueueItem()) {
+                    service.skipToNext();
+                } else if (service != null) {
+                    seekTo(service.getCurrentPosition() + SKIP_INTERVAL_MS);
                 }
                 break;
 
             case "previoustrack":
+                if (service != null && service.getQueueLength() > 1) {
+                    service.skipToPrevious();
+                } else if (service != null) {
+                    seekTo(service.getCurrentPosition() - SKIP_INTERVAL_MS);
+                }
+                break;
+
+            case "seekbackward":
+                if (service != null) {
+                    service.seekBy(-SKIP_INTERVAL_MS);
+                }
+                break;
+
+            case "seekforward":
                 if (service != null) {
-                    seekTo(service.getCurrentPosition() - 10000);
+                    service.seekBy(SKIP_INTERVAL_MS);
                 }
                 break;
 
@@ -315,14 +695,58 @@ public class RemoteStreamerPlugin extends Plugin {
     }
 
     public void onPlayerEvent(String event, JSObject data) {
-        notifyListeners(event, data);
+        events.emit(event, data);
+    }
+
+    // The listener methods are overridden so the service can stop its progress ticker while
+    // nobody listens. They must keep their annotations to stay callable from JS.
+    @Override
+    @PluginMethod(returnType = PluginMethod.RETURN_NONE)
+    public void addListener(PluginCall call) {
+        super.addListener(call);
+        onListenersChanged();
+    }
+
+    @Override
+    @PluginMethod(returnType = PluginMethod.RETURN_NONE)
+    public void removeListener(PluginCall call) {
+        super.removeListener(call);
+        onListenersChanged();
+    }
+
+    @Override
+    @PluginMethod
+    public void removeAllListeners(PluginCall call) {
+        super.removeAllListeners(call);
+        onListenersChanged();
+    }
+
+    private void onListenersChanged() {
+        if (service != null) {
+            service.refreshTimeUpdates();
+            service.refreshStatsReports();
+        }
+    }
+
+    public boolean hasEventListeners(String eventName) {
+        return hasListeners(eventName);
     }
 
     private final Set<String> lsactions = Set.of("pause", "play");
+    private final Set<String> tsactions = Set.of("pause", "play", "seekbackward", "seekforward", "seekto");
     private final Set<String> odactions = Set.of("pause", "play", "nexttrack", "previoustrack","seekto");
     public boolean hasActionHandler(String actionName) {
-        if (isLiveStream) {
-            return this.lsactions.contains(actionName);
+        if (service != null && service.getQueueLength() > 1) {
+            // With a queue, next and previous move between items, live or not.
+            if (actionName.equals("nexttrack")) {
+                return service.hasNextQueueItem();
+            }
+            if (actionName.equals("previoustrack")) {
+                return true;
+            }
+        }
+        if (service != null && service.isLiveStream()) {
+            return (service.isTimeshiftEnabled() ? this.tsactions : this.lsactions).contains(actionName);
         }
         return this.odactions.contains(actionName);
     }
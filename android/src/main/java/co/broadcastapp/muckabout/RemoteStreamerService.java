@@ -2,6 +2,7 @@ package co.broadcastapp.muckabout;
 
 
 import android.annotation.SuppressLint;
+import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -12,6 +13,8 @@ import android.content.pm.ServiceInfo;
 import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.os.IBinder;
 import android.os.Binder;
 import android.os.Looper;
@@ -20,12 +23,14 @@ import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 import androidx.media.session.MediaButtonReceiver;
 import androidx.media.app.NotificationCompat.MediaStyle;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -34,16 +39,28 @@ import java.util.Set;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.MediaMetadata;
 import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.metadata.Metadata;
+import com.google.android.exoplayer2.source.MediaLoadData;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.ProgressiveMediaSource;
 import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
-import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -54,13 +71,15 @@ import android.graphics.BitmapFactory;
 
 import androidx.media.MediaBrowserServiceCompat;
 import android.support.v4.media.MediaBrowserCompat;
-import android.support.v4.media.MediaDescriptionCompat;
 import android.os.Bundle;
+import android.net.Uri;
 import java.util.ArrayList;
 import java.util.List;
 
     public class RemoteStreamerService extends MediaBrowserServiceCompat implements AudioManager.OnAudioFocusChangeListener {
         private static final String TAG = "RemoteStreamerService";
+        // What the session can do on its own, before the plugin connects.
+        private static final Set<String> STANDALONE_ACTIONS = new HashSet<>(Arrays.asList("play", "pause", "stop"));
 
         private MediaSessionCompat mediaSession;
         private PlaybackStateCompat.Builder playbackStateBuilder;
@@ -68,10 +87,12 @@ import java.util.List;
         private NotificationManager notificationManager;
         private NotificationCompat.Builder notificationBuilder;
         private MediaStyle notificationStyle;
+        // The last notification posted, for startForeground on the main thread.
+        private volatile Notification notification;
         private final Map<String, NotificationCompat.Action> notificationActions = new HashMap<>();
         private final Map<String, Long> playbackStateActions = new HashMap<>();
         private final String[] possibleActions = {"previoustrack", "seekbackward", "play", "pause", "seekforward", "nexttrack", "seekto", "stop"};
-        final Set<String> possibleCompactViewActions = new HashSet<>(Arrays.asList("previoustrack", "play", "pause", "nexttrack", "stop", "seekto"));
+        final Set<String> possibleCompactViewActions = new HashSet<>(Arrays.asList("previoustrack", "seekbackward", "play", "pause", "seekforward", "nexttrack", "stop", "seekto"));
         private static final int NOTIFICATION_ID = 1;
 
         private int playbackState = PlaybackStateCompat.STATE_NONE;
@@ -79,30 +100,113 @@ import java.util.List;
         private String artist = "";
         private String album = "";
         private Bitmap artwork = null;
+        private String artworkUrl = null;
         private long duration = 0;
         private long position = 0;
         private float playbackSpeed = 1.0F;
+        // What setPlaybackRate asked for; playbackSpeed also follows live catch-up adjustments.
+        private float requestedPlaybackRate = 1.0F;
 
         private boolean possibleActionsUpdate = true;
         private boolean playbackStateUpdate = false;
         private boolean mediaMetadataUpdate = false;
+        private boolean artworkUpdate = false;
         private boolean notificationUpdate = false;
+        // Snapshots for the update thread, taken on the main thread.
+        private Set<String> availableActions = new HashSet<>(STANDALONE_ACTIONS);
+        private PendingIntent notificationContentIntent = null;
+
+        // Session and notification changes are published at most once per interval from here.
+        private static final long UPDATE_INTERVAL_MS = 250;
+        private HandlerThread updateThread;
+        private Handler updateHandler;
+        private boolean flushScheduled = false;
+        private long lastFlushTime = 0;
+        private final Runnable flushTask = this::flush;
 
         private ExoPlayer player;
+        private Clock playerClock = null;
+        private final ProfileLoadControl loadControl = new ProfileLoadControl(BufferProfile.ON_DEMAND);
+        private DefaultTrackSelector trackSelector;
+        private NetworkMonitor networkMonitor;
+        private boolean dataSaver = false;
+        private int dataSaverMaxBitrate = 64000;
+        private int lastReportedBitrate = Format.NO_VALUE;
+        private final NetworkStats networkStats = new NetworkStats();
+        private final RetryPolicy retryPolicy = new RetryPolicy(networkStats);
+        // Set when a network error stopped playback the listener wanted; cleared by any command.
+        private volatile boolean resumeOnReconnect = false;
+        private boolean isReconnecting = false;
+        private int reconnectAttempts = 0;
+        private static final int MAX_RECONNECT_ATTEMPTS = 5;
+        private final Runnable reconnectTask = this::reconnect;
+        private final PlaybackStatsCollector playbackStats = new PlaybackStatsCollector();
+        private static final long STATS_REPORT_INTERVAL_MS = 30000;
+        private Runnable statsReportTask;
+        private long targetLiveOffsetMs = C.TIME_UNSET;
+        private float liveMinPlaybackSpeed = 0.97f;
+        private float liveMaxPlaybackSpeed = 1.03f;
+        // Further behind than this past the target and resume() jumps instead of speeding up.
+        private static final long LIVE_CATCH_UP_LIMIT_MS = 10000;
+        // Minutes of live audio kept for pause and rewind, 0 when timeshift is off.
+        private int timeshiftMinutes = 0;
+        // Length of the current live playlist, which bounds how far back timeshift can seek.
+        private long liveWindowMs = C.TIME_UNSET;
+        private final LiveSpeedControl liveSpeedControl = new LiveSpeedControl();
         private DefaultDataSource.Factory dataSourceFactory;
+        private DataSource.Factory progressiveDataSourceFactory;
         private AudioManager audioManager;
         private AudioFocusRequest focusRequest;
         private Handler handler;
         private Runnable updateTimeTask;
-        private boolean isLiveStream = false;
+        // Filled in place on every tick; the event bridge serialises them as they are sent.
+        private final JSObject timeUpdatePayload = new JSObject();
+        private final JSObject liveOffsetPayload = new JSObject();
+        private long timeUpdateIntervalMs = 500;
+        private long backgroundTimeUpdateIntervalMs = 5000;
+        private boolean isBackgrounded = false;
+        private volatile boolean isLiveStream = false;
         private boolean resumeOnFocusLossTransient = false;
+        private boolean hasAudioFocus = false;
+        private boolean hasMedia = false;
+        private final TimedMetadataParser metadataParser = new TimedMetadataParser();
+        // Set from the plugin thread, read by the player listener on main.
+        private volatile boolean useStreamMetadata = true;
 
-        private RemoteStreamerPlugin plugin;
+        // Set on the main thread, read from the update thread and session callbacks.
+        private volatile RemoteStreamerPlugin plugin;
+        private volatile boolean isStarted = false;
 
         private final IBinder binder = new LocalBinder();
 
-        private List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
-        private static final String ROOT_ID = "root";
+        private MediaCatalog catalog;
+        private CatalogStore catalogStore;
+        // Writes are batched: a burst of catalog changes costs one snapshot.
+        private volatile boolean catalogSavePending = false;
+        private final Runnable saveCatalogTask = () -> {
+            catalogSavePending = false;
+            catalogStore.save(catalog);
+        };
+        private static final long CATALOG_SAVE_DELAY_MS = 1000;
+        // Lazy folders a browser is waiting on, answered when JS sends their children.
+        private final List<PendingLoad> pendingLoads = new ArrayList<>();
+        private static final long CHILDREN_LOAD_TIMEOUT_MS = 5000;
+        private StreamPrebuffer prebuffer;
+        private ArtworkLoader artworkLoader;
+        // Large enough for the expanded notification and the Android Auto now-playing screen.
+        private static final int ARTWORK_SIZE = 512;
+        private static final int BROWSE_ICON_SIZE = 256;
+        // Browse icons arrive one by one; tell browsers about them in one go.
+        private final Set<String> changedFolders = new HashSet<>();
+        private final Runnable notifyFoldersChanged = this::notifyFoldersChanged;
+        private String currentUrl = null;
+        // The item onCurrentItemChanged last handled; main thread only.
+        private MediaItem currentItem = null;
+        // The profile play() asked for. It is handed to the item play() starts and to no other.
+        private BufferProfile requestedBufferProfile = null;
+        private boolean playPending = false;
+        private volatile List<MediaItem> queue = Collections.emptyList();
+        private volatile int queueIndex = C.INDEX_UNSET;
 
         public final class LocalBinder extends Binder {
             public RemoteStreamerService getService() {
@@ -110,57 +214,260 @@ import java.util.List;
             }
         }
 
+        private static final class PendingLoad {
+            final String parentId;
+            final int page;
+            final int pageSize;
+            final Result<List<MediaBrowserCompat.MediaItem>> result;
+
+            PendingLoad(String parentId, int page, int pageSize, Result<List<MediaBrowserCompat.MediaItem>> result) {
+                this.parentId = parentId;
+                this.page = page;
+                this.pageSize = pageSize;
+                this.result = result;
+            }
+        }
+
         @Override
         public BrowserRoot onGetRoot(String clientPackageName, int clientUid, Bundle rootHints) {
+            if (rootHints != null && rootHints.getBoolean(BrowserRoot.EXTRA_RECENT)) {
+                // The system asks for what to offer when resuming playback, e.g. from the car's
+                // media card after a reboot; the recents are restored from disk.
+                if (catalog.getRecents().isEmpty()) {
+                    return null;
+                }
+                Bundle extras = new Bundle();
+                extras.putBoolean(BrowserRoot.EXTRA_RECENT, true);
+                return new BrowserRoot(MediaCatalog.RECENTS_ID, extras);
+            }
             // Basic validation - in a real app, you might check if the package is on an allowlist
-            return new BrowserRoot(ROOT_ID, null);
+            return new BrowserRoot(MediaCatalog.ROOT_ID, null);
         }
 
         @Override
         public void onLoadChildren(final String parentMediaId, final Result<List<MediaBrowserCompat.MediaItem>> result) {
-            if (ROOT_ID.equals(parentMediaId)) {
-                result.sendResult(mediaItems);
-            } else {
-                result.sendResult(new ArrayList<>());
+            onLoadChildren(parentMediaId, result, null);
+        }
+
+        @Override
+        public void onLoadChildren(final String parentMediaId, final Result<List<MediaBrowserCompat.MediaItem>> result, final Bundle options) {
+            int page = options != null ? options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1) : -1;
+            int pageSize = options != null ? options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1) : -1;
+            if (catalog.needsLoad(parentMediaId) && plugin != null) {
+                // Ask JS for the folder's children and answer once they arrive, or with what
+                // we have when they don't.
+                result.detach();
+                boolean alreadyAsked = false;
+                for (PendingLoad pending : pendingLoads) {
+                    alreadyAsked |= pending.parentId.equals(parentMediaId);
+                }
+                PendingLoad load = new PendingLoad(parentMediaId, page, pageSize, result);
+                pendingLoads.add(load);
+                handler.postDelayed(() -> completeLoad(load), CHILDREN_LOAD_TIMEOUT_MS);
+                if (!alreadyAsked) {
+                    plugin.onPlayerEvent("loadChildren", new JSObject()
+                            .put("parentId", parentMediaId)
+                            .put("page", page)
+                            .put("pageSize", pageSize));
+                }
+                return;
             }
+            sendChildren(result, parentMediaId, page, pageSize);
         }
 
-        public void setMediaItems(List<MediaBrowserCompat.MediaItem> items) {
-            this.mediaItems = items;
-            notifyChildrenChanged(ROOT_ID);
+        private void sendChildren(Result<List<MediaBrowserCompat.MediaItem>> result, String parentId, int page, int pageSize) {
+            List<MediaBrowserCompat.MediaItem> children = catalog.getChildren(parentId, page, pageSize);
+            result.sendResult(children);
+            // Thumbnails can be evicted while items still point at them. The loader only makes
+            // the missing files again, and the folder is refreshed only if an icon URI changed:
+            // a refresh would bring the browser straight back here, and each rewrite can evict
+            // another folder's icons.
+            for (MediaBrowserCompat.MediaItem item : children) {
+                MediaCatalog.Entry entry = catalog.getEntry(item.getMediaId());
+                if (entry == null || !isRemoteArtwork(entry.artworkUrl)) {
+                    continue;
+                }
+                final String mediaId = entry.getId();
+                artworkLoader.prefetchThumbnail(entry.artworkUrl, BROWSE_ICON_SIZE, (url, file, written) ->
+                        replaceIconUri(mediaId, url, ArtworkProvider.getUri(this, file), false));
+            }
         }
 
-        public String getStreamUrlForMediaId(String mediaId) {
-            for (MediaBrowserCompat.MediaItem item : mediaItems) {
-                MediaDescriptionCompat desc = item.getDescription();
-                if (desc.getMediaId() != null && desc.getMediaId().equals(mediaId)) {
-                    if (desc.getMediaUri() != null) {
-                        return desc.getMediaUri().toString();
+        // Runs on the main thread; a load is only answered once.
+        private void completeLoad(PendingLoad load) {
+            if (pendingLoads.remove(load)) {
+                sendChildren(load.result, load.parentId, load.page, load.pageSize);
+            }
+        }
+
+        /**
+         * Replaces the whole catalog, or only the children of parentId when it isn't null, for
+         * example in answer to a loadChildren event.
+         */
+        public void setMediaItems(String parentId, List<MediaCatalog.Entry> entries) {
+            Set<String> changed = parentId == null ? catalog.setAll(entries) : catalog.setChildren(parentId, entries);
+            onCatalogChanged(changed, entries);
+        }
+
+        /** Adds or replaces items by id and removes others, leaving the rest of the catalog alone. */
+        public void updateMediaItems(List<MediaCatalog.Entry> upserts, List<String> removals) {
+            onCatalogChanged(catalog.update(upserts, removals), upserts);
+        }
+
+        MediaCatalog getCatalog() {
+            return catalog;
+        }
+
+        // Browsers only re-query folders whose listing changed; a push of the same items is free.
+        private void onCatalogChanged(Set<String> folders, List<MediaCatalog.Entry> entries) {
+            for (String parentId : folders) {
+                notifyChildrenChanged(parentId);
+            }
+            if (!folders.isEmpty()) {
+                saveCatalog();
+            }
+            handler.post(() -> {
+                for (PendingLoad load : new ArrayList<>(pendingLoads)) {
+                    if (!catalog.needsLoad(load.parentId)) {
+                        completeLoad(load);
                     }
                 }
+            });
+            if (!folders.isEmpty()) {
+                prebuffer.reset();
+                prebufferLikelyNext();
+            }
+            prefetchBrowseArtwork(entries);
+        }
+
+        // Serve browse icons from a local content URI so Android Auto doesn't refetch every logo.
+        private void prefetchBrowseArtwork(List<MediaCatalog.Entry> entries) {
+            for (MediaCatalog.Entry entry : entries) {
+                // Always from the URL JS sent, so an entry already on a local icon gets its
+                // thumbnail back if it was evicted.
+                String artworkUrl = entry.artworkUrl;
+                if (!isRemoteArtwork(artworkUrl)) {
+                    continue;
+                }
+                final String mediaId = entry.getId();
+                artworkLoader.prefetchThumbnail(artworkUrl, BROWSE_ICON_SIZE, (url, file, written) ->
+                        replaceIconUri(mediaId, url, ArtworkProvider.getUri(this, file), written));
+            }
+        }
+
+        private static boolean isRemoteArtwork(String artworkUrl) {
+            return artworkUrl != null && (artworkUrl.startsWith("http://") || artworkUrl.startsWith("https://"));
+        }
+
+        private void replaceIconUri(String mediaId, String sourceUrl, Uri iconUri, boolean written) {
+            Set<String> folders = catalog.replaceIconUri(mediaId, sourceUrl, iconUri, written);
+            if (folders.isEmpty()) {
+                return;
+            }
+            synchronized (changedFolders) {
+                changedFolders.addAll(folders);
+            }
+            saveCatalog();
+            handler.removeCallbacks(notifyFoldersChanged);
+            handler.postDelayed(notifyFoldersChanged, 500);
+        }
+
+        private void saveCatalog() {
+            catalogSavePending = true;
+            updateHandler.removeCallbacks(saveCatalogTask);
+            updateHandler.postDelayed(saveCatalogTask, CATALOG_SAVE_DELAY_MS);
+        }
+
+        private void notifyFoldersChanged() {
+            List<String> folders;
+            synchronized (changedFolders) {
+                folders = new ArrayList<>(changedFolders);
+                changedFolders.clear();
+            }
+            for (String parentId : folders) {
+                notifyChildrenChanged(parentId);
             }
-            return null;
+        }
+
+        /**
+         * Puts an LRU disk cache of at most maxBytes in front of on-demand (progressive) audio, or
+         * removes it when maxBytes is 0. Live HLS is never cached. Applies from the next play().
+         */
+        public void setCacheSize(long maxBytes) {
+            handler.post(() -> {
+                Cache cache = MediaCache.get(this, maxBytes);
+                if (cache == null) {
+                    progressiveDataSourceFactory = withDownloads(dataSourceFactory);
+                } else {
+                    progressiveDataSourceFactory = withDownloads(new CacheDataSource.Factory()
+                            .setCache(cache)
+                            .setUpstreamDataSourceFactory(dataSourceFactory)
+                            .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR));
+                }
+                prebuffer.setProgressiveDataSourceFactory(progressiveDataSourceFactory, cache != null);
+            });
+        }
+
+        // Downloaded episodes, complete or partial, are read from local storage; the rest of
+        // each stream falls through to upstream. Nothing is written here, only the download
+        // service fills this cache.
+        private DataSource.Factory withDownloads(DataSource.Factory upstream) {
+            return new CacheDataSource.Factory()
+                    .setCache(DownloadTracker.get(this).getCache())
+                    .setUpstreamDataSourceFactory(upstream)
+                    .setCacheWriteDataSinkFactory(null)
+                    .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+        }
+
+        public void setPrebufferCount(int count) {
+            prebuffer.setItemCount(count);
+        }
+
+        // The items following the current one in its browse folder are the most likely next picks.
+        private void prebufferLikelyNext() {
+            prebuffer.prebuffer(catalog.getNextStreamUrls(currentUrl));
+        }
+
+        public String getStreamUrlForMediaId(String mediaId) {
+            return catalog.findStreamUrl(mediaId);
         }
 
         @Override
         public void onCreate() {
             super.onCreate();
             handler = new Handler(Looper.getMainLooper());
+            catalog = new MediaCatalog(getString(R.string.recents_folder_name));
+            // Read before any browser connects, so a car that starts the service finds the
+            // catalog without waiting for JS.
+            catalogStore = new CatalogStore(this);
+            catalogStore.load(catalog);
+            createMediaSession();
+            createNotification();
+            updateThread = new HandlerThread("RemoteStreamerUpdates");
+            updateThread.start();
+            updateHandler = new Handler(updateThread.getLooper());
             audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
             
-            String versionName = "1.0"; // Default version
-            String deviceModel = android.os.Build.MODEL;
-            String osVersion = android.os.Build.VERSION.RELEASE;
-            try {
-                versionName = getPackageManager()
-                .getPackageInfo(getPackageName(), 0).versionName;
-            } catch (Exception e) {
-                Log.e("RemoteStreamerService", "Failed to get version name", e);
-            }
-            String userAgent = "WNYC-App/" + versionName + " (Android " + osVersion + "; " + deviceModel + ")";
-            DefaultHttpDataSource.Factory httpDataSourceFactory =
-                new DefaultHttpDataSource.Factory().setUserAgent(userAgent);
-            dataSourceFactory = new DefaultDataSource.Factory(this, httpDataSourceFactory);
+            dataSourceFactory = new DefaultDataSource.Factory(this, NetworkStack.createDataSourceFactory(NetworkStack.getUserAgent(this)));
+            progressiveDataSourceFactory = withDownloads(dataSourceFactory);
+            prebuffer = new StreamPrebuffer(this, dataSourceFactory);
+            artworkLoader = ArtworkLoader.create(this);
+            // Icons from the snapshot are the original URLs; point them back at local thumbnails.
+            prefetchBrowseArtwork(catalog.getEntries());
+            trackSelector = new DefaultTrackSelector(this);
+            networkMonitor = new NetworkMonitor(this, (isMetered, isNewNetwork, isValidated) -> {
+                if (isNewNetwork) {
+                    // Pooled connections and cached addresses belong to the old network.
+                    NetworkStack.evictConnections();
+                    NetworkStack.clearDnsCache();
+                }
+                applyBitrateCap();
+                if (isValidated && resumeOnReconnect) {
+                    reconnect();
+                }
+            });
+            networkMonitor.start();
+            applyBitrateCap();
 
             AudioAttributes audioAttributes = new AudioAttributes.Builder()
                     .setUsage(AudioAttributes.USAGE_MEDIA)
@@ -174,6 +481,21 @@ import java.util.List;
                     .build();
         }
 
+        @Override
+        public void onDestroy() {
+            prebuffer.release();
+            artworkLoader.release();
+            networkMonitor.stop();
+            mediaSession.release();
+            // Anything still waiting to be saved goes out before the thread stops.
+            if (catalogSavePending) {
+                updateHandler.removeCallbacks(saveCatalogTask);
+                updateHandler.post(saveCatalogTask);
+            }
+            updateThread.quitSafely();
+            super.onDestroy();
+        }
+
         @Override
         public IBinder onBind(Intent intent) {
             // If the intent has the MediaBrowserService action, let the superclass handle it
@@ -194,11 +516,11 @@ import java.util.List;
             return super.onUnbind(intent);
         }
 
-        public void connectAndInitialize(RemoteStreamerPlugin plugin, Intent intent) {
-            this.plugin = plugin;
-
+        // The session exists from onCreate: MediaBrowserServiceCompat holds back browser
+        // connections until it has a token, and Android Auto may start the service cold.
+        private void createMediaSession() {
             mediaSession = new MediaSessionCompat(this, "WebViewMediaSession");
-            mediaSession.setCallback(new MediaSessionCallback(plugin, this));
+            mediaSession.setCallback(new MediaSessionCallback(this));
             mediaSession.setActive(true);
 
             // Required for Android Auto to control playback via MediaBrowserServiceCompat
@@ -213,6 +535,22 @@ import java.util.List;
                     .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, duration);
             mediaSession.setMetadata(mediaMetadataBuilder.build());
 
+            playbackStateActions.put("previoustrack", PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS);
+            playbackStateActions.put("seekbackward", PlaybackStateCompat.ACTION_REWIND);
+            playbackStateActions.put("play", (PlaybackStateCompat.ACTION_PLAY_PAUSE | PlaybackStateCompat.ACTION_PLAY));
+            playbackStateActions.put("pause", (PlaybackStateCompat.ACTION_PLAY_PAUSE | PlaybackStateCompat.ACTION_PAUSE));
+            playbackStateActions.put("seekforward", PlaybackStateCompat.ACTION_FAST_FORWARD);
+            playbackStateActions.put("nexttrack", PlaybackStateCompat.ACTION_SKIP_TO_NEXT);
+            playbackStateActions.put("seekto", PlaybackStateCompat.ACTION_SEEK_TO);
+            playbackStateActions.put("stop", PlaybackStateCompat.ACTION_STOP);
+        }
+
+        RemoteStreamerPlugin getPlugin() {
+            return plugin;
+        }
+
+        // Until the plugin connects, the notification opens the app's launch activity.
+        private void createNotification() {
             notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 NotificationChannel channel = new NotificationChannel("playback", "Playback", NotificationManager.IMPORTANCE_LOW);
@@ -223,14 +561,12 @@ import java.util.List;
             notificationBuilder = new NotificationCompat.Builder(this, "playback")
                     .setStyle(notificationStyle)
                     .setSmallIcon(R.drawable.ic_baseline_wnyc_white)
-                    .setContentIntent(PendingIntent.getActivity(getApplicationContext(), 0, intent, PendingIntent.FLAG_IMMUTABLE))
                     .setVisibility(NotificationCompat.VISIBILITY_PUBLIC);
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                startForeground(NOTIFICATION_ID, notificationBuilder.build(), ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK);
-            } else {
-                startForeground(NOTIFICATION_ID, notificationBuilder.build());
+            Intent launchIntent = getPackageManager().getLaunchIntentForPackage(getPackageName());
+            if (launchIntent != null) {
+                notificationBuilder.setContentIntent(PendingIntent.getActivity(getApplicationContext(), 0, launchIntent, PendingIntent.FLAG_IMMUTABLE));
             }
+            notification = notificationBuilder.build();
 
             notificationActions.put("play", new NotificationCompat.Action(
                     R.drawable.ic_baseline_play_arrow_24, "Play", MediaButtonReceiver.buildMediaButtonPendingIntent(this, (PlaybackStateCompat.ACTION_PLAY_PAUSE | PlaybackStateCompat.ACTION_PLAY))
@@ -253,20 +589,18 @@ import java.util.List;
             notificationActions.put("stop", new NotificationCompat.Action(
                     R.drawable.ic_baseline_stop_24, "Stop", MediaButtonReceiver.buildMediaButtonPendingIntent(this, PlaybackStateCompat.ACTION_STOP)
             ));
+        }
 
-            playbackStateActions.put("previoustrack", PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS);
-            playbackStateActions.put("seekbackward", PlaybackStateCompat.ACTION_REWIND);
-            playbackStateActions.put("play", (PlaybackStateCompat.ACTION_PLAY_PAUSE | PlaybackStateCompat.ACTION_PLAY));
-            playbackStateActions.put("pause", (PlaybackStateCompat.ACTION_PLAY_PAUSE | PlaybackStateCompat.ACTION_PAUSE));
-            playbackStateActions.put("seekforward", PlaybackStateCompat.ACTION_FAST_FORWARD);
-            playbackStateActions.put("nexttrack", PlaybackStateCompat.ACTION_SKIP_TO_NEXT);
-            playbackStateActions.put("seekto", PlaybackStateCompat.ACTION_SEEK_TO);
-            playbackStateActions.put("stop", PlaybackStateCompat.ACTION_STOP);
+        public synchronized void connectAndInitialize(RemoteStreamerPlugin plugin, Intent intent) {
+            this.plugin = plugin;
+            notificationContentIntent = PendingIntent.getActivity(getApplicationContext(), 0, intent, PendingIntent.FLAG_IMMUTABLE);
+            updatePossibleActions();
         }
 
         public void destroy() {
             releasePlayer();
             stopForeground(true);
+            isStarted = false;
             //mediaSession.setActive(false);
             notificationManager.cancel(NOTIFICATION_ID);
             stopSelf();
@@ -274,12 +608,20 @@ import java.util.List;
 
         @Override
         public int onStartCommand(Intent intent, int flags, int startId) {
+            isStarted = true;
+            // Started for playback or by a media button: either way it now runs in the foreground.
+            // Only binding, as the plugin does for configuration, leaves it in the background.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK);
+            } else {
+                startForeground(NOTIFICATION_ID, notification);
+            }
             MediaButtonReceiver.handleIntent(mediaSession, intent);
             super.onStartCommand(intent, flags, startId);
             return Service.START_NOT_STICKY;
         }
 
-        public void setPlaybackState(int playbackState) {
+        public synchronized void setPlaybackState(int playbackState) {
             if (playbackState != this.playbackState) {
                 this.playbackState = playbackState;
                 playbackStateUpdate = true;
@@ -287,7 +629,7 @@ import java.util.List;
             }
         }
 
-        public void setTitle(String title)  {
+        public synchronized void setTitle(String title)  {
             if (!title.equals(this.title)) {
                 this.title = title;
                 mediaMetadataUpdate = true;
@@ -295,7 +637,7 @@ import java.util.List;
             }
         }
 
-        public void setArtist(String artist) {
+        public synchronized void setArtist(String artist) {
             if (!artist.equals(this.artist)) {
                 this.artist = artist;
                 mediaMetadataUpdate = true;
@@ -303,7 +645,7 @@ import java.util.List;
             }
         }
 
-        public void setAlbum(String album) {
+        public synchronized void setAlbum(String album) {
             if (!album.equals(this.album)) {
                 this.album = album;
                 mediaMetadataUpdate = true;
@@ -311,13 +653,33 @@ import java.util.List;
             }
         }
 
-        public void setArtwork(Bitmap artwork) {
-            this.artwork = artwork;
-            mediaMetadataUpdate = true;
-            notificationUpdate = true;
+        public synchronized void setArtwork(Bitmap artwork) {
+            if (this.artwork != artwork) {
+                this.artwork = artwork;
+                artworkUpdate = true;
+                mediaMetadataUpdate = true;
+                notificationUpdate = true;
+            }
+        }
+
+        /**
+         * Loads the artwork in the background and publishes it once decoded. A response for a
+         * URL that has since been replaced is dropped.
+         */
+        public void setArtworkUrl(String url) {
+            if (url.equals(artworkUrl)) {
+                return;
+            }
+            artworkUrl = url;
+            artworkLoader.load(url, ARTWORK_SIZE, (loadedUrl, bitmap) -> {
+                if (url.equals(artworkUrl)) {
+                    setArtwork(bitmap);
+                    update();
+                }
+            });
         }
 
-        public void setDuration(long duration) {
+        public synchronized void setDuration(long duration) {
             if (this.duration != duration) {
                 this.duration = duration;
                 mediaMetadataUpdate = true;
@@ -325,26 +687,86 @@ import java.util.List;
             }
         }
 
-        public void setPosition(long position) {
+        public synchronized void setPosition(long position) {
             if (this.position != position) {
                 this.position = position;
                 playbackStateUpdate = true;
             }
         }
 
-        public void setPlaybackSpeed(float playbackSpeed) {
+        public synchronized void setPlaybackSpeed(float playbackSpeed) {
             if (this.playbackSpeed != playbackSpeed) {
                 this.playbackSpeed = playbackSpeed;
                 playbackStateUpdate = true;
             }
         }
 
-        @SuppressLint("RestrictedApi")
+        /**
+         * Schedules publishing whatever the setters marked dirty. Calls within one interval are
+         * folded into a single flush on the update thread, so bursts of now-playing changes
+         * turn into one session update and one notification post.
+         */
         public void update() {
-            if (possibleActionsUpdate) {
-                if (notificationBuilder != null) {
-                    notificationBuilder.mActions.clear();
+            synchronized (this) {
+                if (flushScheduled || updateHandler == null) {
+                    return;
                 }
+                flushScheduled = true;
+            }
+            long delay = Math.max(0, lastFlushTime + UPDATE_INTERVAL_MS - SystemClock.uptimeMillis());
+            updateHandler.postDelayed(flushTask, delay);
+        }
+
+        /**
+         * Publishes on the update thread. The dirty values are copied out under the lock, which
+         * the main-thread setters share; the session and notification calls, which cross into
+         * system_server, happen after it is released. The builders are only touched here.
+         */
+        @SuppressLint("RestrictedApi")
+        private void flush() {
+            final boolean actionsChanged;
+            final boolean stateChanged;
+            final boolean metadataChanged;
+            final boolean notificationChanged;
+            final boolean artworkChanged;
+            final Set<String> actions;
+            final int state;
+            final long currentPosition;
+            final float speed;
+            final String currentTitle;
+            final String currentArtist;
+            final String currentAlbum;
+            final long currentDuration;
+            final Bitmap currentArtwork;
+            final PendingIntent contentIntent;
+            synchronized (this) {
+                flushScheduled = false;
+                lastFlushTime = SystemClock.uptimeMillis();
+                actionsChanged = possibleActionsUpdate;
+                stateChanged = playbackStateUpdate || actionsChanged;
+                metadataChanged = mediaMetadataUpdate;
+                notificationChanged = notificationUpdate || actionsChanged || notificationContentIntent != null;
+                artworkChanged = artworkUpdate;
+                actions = availableActions;
+                state = playbackState;
+                currentPosition = position;
+                speed = playbackSpeed;
+                currentTitle = title;
+                currentArtist = artist;
+                currentAlbum = album;
+                currentDuration = duration;
+                currentArtwork = artwork;
+                contentIntent = notificationContentIntent;
+                possibleActionsUpdate = false;
+                playbackStateUpdate = false;
+                mediaMetadataUpdate = false;
+                notificationUpdate = false;
+                artworkUpdate = false;
+                notificationContentIntent = null;
+            }
+
+            if (actionsChanged) {
+                notificationBuilder.mActions.clear();
 
                 long activePlaybackStateActions = 0;
                 int[] activeCompactViewActionIndices = new int[3];
@@ -352,11 +774,11 @@ import java.util.List;
                 int notificationActionIndex = 0;
                 int compactNotificationActionIndicesIndex = 0;
                 for (String actionName : possibleActions) {
-                    if (plugin.hasActionHandler(actionName)) {
-                        if (actionName.equals("play") && playbackState != PlaybackStateCompat.STATE_PAUSED) {
+                    if (actions.contains(actionName)) {
+                        if (actionName.equals("play") && state != PlaybackStateCompat.STATE_PAUSED) {
                             continue;
                         }
-                        if (actionName.equals("pause") && playbackState != PlaybackStateCompat.STATE_PLAYING) {
+                        if (actionName.equals("pause") && state != PlaybackStateCompat.STATE_PLAYING) {
                             continue;
                         }
 
@@ -375,93 +797,314 @@ import java.util.List;
                     }
                 }
 
-                if (playbackStateBuilder != null) {
-                    playbackStateBuilder.setActions(activePlaybackStateActions);
-                }
-                if (notificationStyle != null) {
-                    if (compactNotificationActionIndicesIndex > 0) {
-                        notificationStyle.setShowActionsInCompactView(Arrays.copyOfRange(activeCompactViewActionIndices, 0, compactNotificationActionIndicesIndex));
-                    } else {
-                        notificationStyle.setShowActionsInCompactView();
-                    }
+                playbackStateBuilder.setActions(activePlaybackStateActions);
+                if (compactNotificationActionIndicesIndex > 0) {
+                    notificationStyle.setShowActionsInCompactView(Arrays.copyOfRange(activeCompactViewActionIndices, 0, compactNotificationActionIndicesIndex));
+                } else {
+                    notificationStyle.setShowActionsInCompactView();
                 }
-
-                possibleActionsUpdate = false;
-                playbackStateUpdate = true;
-                notificationUpdate = true;
             }
 
-            if (playbackStateUpdate && playbackStateBuilder != null) {
-                playbackStateBuilder.setState(this.playbackState, this.position, this.playbackSpeed);
+            if (stateChanged) {
+                playbackStateBuilder.setState(state, currentPosition, speed);
                 mediaSession.setPlaybackState(playbackStateBuilder.build());
-                playbackStateUpdate = false;
             }
 
-            if (mediaMetadataUpdate && mediaMetadataBuilder != null) {
+            // The builders keep earlier values, so the bitmap is only handed over when it changed.
+            if (metadataChanged) {
                 mediaMetadataBuilder
-                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
-                        .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artist)
-                        .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, album)
-                        .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, artwork)
-                        .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, duration);
+                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, currentTitle)
+                        .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, currentArtist)
+                        .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, currentAlbum)
+                        .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, currentDuration);
+                if (artworkChanged) {
+                    mediaMetadataBuilder.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, currentArtwork);
+                }
                 mediaSession.setMetadata(mediaMetadataBuilder.build());
-                mediaMetadataUpdate = false;
             }
 
-            if (notificationUpdate && notificationBuilder != null) {
+            if (notificationChanged) {
+                if (contentIntent != null) {
+                    notificationBuilder.setContentIntent(contentIntent);
+                }
                 notificationBuilder
-                        .setContentTitle(title)
-                        .setContentText(artist + " - " + album)
-                        .setLargeIcon(artwork);
-                notificationManager.notify(NOTIFICATION_ID, notificationBuilder.build());
-                notificationUpdate = false;
+                        .setContentTitle(currentTitle)
+                        .setContentText(currentArtist + " - " + currentAlbum);
+                if (artworkChanged) {
+                    notificationBuilder.setLargeIcon(currentArtwork);
+                }
+                notification = notificationBuilder.build();
+                notificationManager.notify(NOTIFICATION_ID, notification);
             }
         }
 
+        /**
+         * Works out which actions the controls offer and schedules publishing them. Call on the
+         * main thread: what the app handles depends on player state kept there.
+         */
         public void updatePossibleActions() {
-            this.possibleActionsUpdate = true;
+            RemoteStreamerPlugin plugin = this.plugin;
+            Set<String> actions = new HashSet<>();
+            for (String actionName : possibleActions) {
+                // Android Auto can start the service before the plugin connects; the session
+                // then handles play, pause and stop itself.
+                if (plugin != null ? plugin.hasActionHandler(actionName) : STANDALONE_ACTIONS.contains(actionName)) {
+                    actions.add(actionName);
+                }
+            }
+            synchronized (this) {
+                this.availableActions = actions;
+                this.possibleActionsUpdate = true;
+            }
             this.update();
         }
 
         public void play(String url) {
+            play(url, null, SystemClock.elapsedRealtime());
+        }
+
+        /**
+         * @param bufferProfile how deep to buffer, or null to pick one from the content type
+         * @param requestedAtMs when playback was asked for, in elapsedRealtime, so time to first
+         *                      audio includes getting here
+         */
+        public void play(String url, BufferProfile bufferProfile, long requestedAtMs) {
             if (url == null) return;
 
             handler.post(() -> {
-                releasePlayer();
-                player = new ExoPlayer.Builder(this).build();
-
-                MediaSource mediaSource;
-                if (url.contains(".m3u8")) {
-                    mediaSource = new HlsMediaSource.Factory(dataSourceFactory)
-                            .createMediaSource(MediaItem.fromUri(url));
-                    this.isLiveStream = true;
-                    setDuration(0);
-                    setPosition(0);
+                // Reuse the player between streams; only the media source is swapped so the
+                // codec, renderers and load control survive a station change.
+                ensurePlayer();
+                requestedBufferProfile = bufferProfile;
+                playPending = true;
+                player.setMediaSource(buildMediaSource(MediaItem.fromUri(url)));
+                startPlayback(requestedAtMs);
+            });
+        }
+
+        private MediaSource buildMediaSource(MediaItem mediaItem) {
+            if (isHls(mediaItem)) {
+                // Low-latency HLS (parts and preload hints) is used whenever the playlist
+                // offers it. The live configuration lets the player drift towards the target
+                // offset by nudging the speed instead of seeking. With timeshift the listener
+                // picks the offset, so the speed stays at 1.
+                MediaItem liveItem = mediaItem.buildUpon()
+                        .setLiveConfiguration(new MediaItem.LiveConfiguration.Builder()
+                                .setTargetOffsetMs(targetLiveOffsetMs)
+                                .setMinPlaybackSpeed(timeshiftMinutes > 0 ? 1.0f : liveMinPlaybackSpeed)
+                                .setMaxPlaybackSpeed(timeshiftMinutes > 0 ? 1.0f : liveMaxPlaybackSpeed)
+                                .build())
+                        .build();
+                return new HlsMediaSource.Factory(dataSourceFactory)
+                        .setLoadErrorHandlingPolicy(retryPolicy)
+                        .createMediaSource(liveItem);
+            }
+            return new ProgressiveMediaSource.Factory(progressiveDataSourceFactory)
+                    .setLoadErrorHandlingPolicy(retryPolicy)
+                    .createMediaSource(mediaItem);
+        }
+
+        private static boolean isHls(MediaItem mediaItem) {
+            return mediaItem.localConfiguration != null && mediaItem.localConfiguration.uri.toString().contains(".m3u8");
+        }
+
+        // Prepares and starts whatever is in the player's playlist, from its current item.
+        private void startPlayback(long requestedAtMs) {
+            cancelReconnect();
+            reconnectAttempts = 0;
+            onCurrentItemChanged(player.getCurrentMediaItem());
+            playbackStats.startSession(currentUrl, requestedAtMs);
+            player.prepare();
+            hasMedia = true;
+            prebufferLikelyNext();
+
+            if (!hasAudioFocus) {
+                hasAudioFocus = audioManager.requestAudioFocus(focusRequest) == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+            }
+            if (hasAudioFocus) {
+                player.play();
+            }
+            Log.d("stream", "playing");
+            setPlaybackState(PlaybackStateCompat.STATE_PLAYING);
+            update();
+
+            if (plugin != null) plugin.onPlayerEvent("play", new JSObject());
+        }
+
+        // Per-item state; runs before preparing and again whenever the queue moves on.
+        private void onCurrentItemChanged(MediaItem mediaItem) {
+            // setMediaSource reports the transition before startPlayback asks; only the first
+            // call for an item counts. Playing the same URL again is a new item.
+            if (mediaItem == null || mediaItem.localConfiguration == null || mediaItem == currentItem) {
+                return;
+            }
+            currentItem = mediaItem;
+            isLiveStream = isHls(mediaItem);
+            liveWindowMs = C.TIME_UNSET;
+            currentUrl = mediaItem.localConfiguration.uri.toString();
+            Set<String> recentsChanged = catalog.addRecent(catalog.findIdByUrl(currentUrl));
+            for (String parentId : recentsChanged) {
+                notifyChildrenChanged(parentId);
+            }
+            if (!recentsChanged.isEmpty()) {
+                saveCatalog();
+            }
+            metadataParser.reset();
+            lastReportedBitrate = Format.NO_VALUE;
+            boolean fromPlay = playPending;
+            playPending = false;
+            if (!fromPlay) {
+                requestedBufferProfile = null;
+            }
+            loadControl.setProfile(requestedBufferProfile != null ? requestedBufferProfile : defaultBufferProfile());
+            if (isLiveStream) {
+                setDuration(0);
+                setPosition(0);
+            }
+            // Queue items carry their own now-playing info, so it is right even when JS is asleep.
+            // Fields an item leaves out are cleared rather than kept from the previous item. A
+            // plain play() has none, and its info comes from setPlaybackInfo instead.
+            if (!fromPlay) {
+                MediaMetadata metadata = mediaItem.mediaMetadata;
+                setTitle(metadata.title != null ? metadata.title.toString() : "");
+                setArtist(metadata.artist != null ? metadata.artist.toString() : "");
+                setAlbum(metadata.albumTitle != null ? metadata.albumTitle.toString() : "");
+                setArtworkUrl(metadata.artworkUri != null ? metadata.artworkUri.toString() : "");
+            }
+            // Live and on-demand offer different controls.
+            updatePossibleActions();
+        }
+
+        /** Inserts items at index, or appends them when index is out of range. */
+        public void enqueue(List<MediaItem> items, int index) {
+            handler.post(() -> {
+                ensurePlayer();
+                List<MediaSource> sources = new ArrayList<>();
+                for (MediaItem item : items) {
+                    sources.add(buildMediaSource(item));
+                }
+                if (index >= 0 && index <= player.getMediaItemCount()) {
+                    player.addMediaSources(index, sources);
                 } else {
-                    mediaSource = new ProgressiveMediaSource.Factory(dataSourceFactory)
-                            .createMediaSource(MediaItem.fromUri(url));
-                    this.isLiveStream = false;
+                    player.addMediaSources(sources);
+                }
+            });
+        }
+
+        public void removeFromQueue(int index) {
+            handler.post(() -> {
+                if (player != null && index >= 0 && index < player.getMediaItemCount()) {
+                    player.removeMediaItem(index);
                 }
+            });
+        }
 
-                player.setMediaSource(mediaSource);
-                player.prepare();
+        public void moveInQueue(int from, int to) {
+            handler.post(() -> {
+                if (player != null && from >= 0 && from < player.getMediaItemCount() && to >= 0 && to < player.getMediaItemCount()) {
+                    player.moveMediaItem(from, to);
+                }
+            });
+        }
 
-                setupPlayerListeners();
+        /** Jumps to the queue item at index, starting playback if nothing is loaded yet. */
+        public void skipTo(int index) {
+            long requestedAtMs = SystemClock.elapsedRealtime();
+            handler.post(() -> {
+                if (player == null || index < 0 || index >= player.getMediaItemCount()) {
+                    return;
+                }
+                player.seekToDefaultPosition(index);
+                if (!hasMedia) {
+                    startPlayback(requestedAtMs);
+                }
+            });
+        }
 
-                int focusResult = audioManager.requestAudioFocus(focusRequest);
-                if (focusResult == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-                    player.play();
+        public void skipToNext() {
+            handler.post(() -> {
+                if (player != null && player.hasNextMediaItem()) {
+                    player.seekToNextMediaItem();
                 }
-                Log.d("stream", "playing");
-                setPlaybackState(PlaybackStateCompat.STATE_PLAYING);
-                update();
+            });
+        }
 
-                if (plugin != null) plugin.onPlayerEvent("play", new JSObject());
+        /** Restarts the current item when past its first few seconds, like a CD player. */
+        public void skipToPrevious() {
+            handler.post(() -> {
+                if (player != null) {
+                    player.seekToPrevious();
+                }
             });
         }
 
+        public boolean hasNextQueueItem() {
+            return queueIndex + 1 < queue.size();
+        }
+
+        public boolean hasPreviousQueueItem() {
+            return queueIndex > 0;
+        }
+
+        public int getQueueLength() {
+            return queue.size();
+        }
+
+        public JSObject getQueue() {
+            List<MediaItem> items = queue;
+            JSArray array = new JSArray();
+            for (MediaItem item : items) {
+                array.put(queueItemToJSObject(item));
+            }
+            return new JSObject()
+                    .put("items", array)
+                    .put("currentIndex", queueIndex);
+        }
+
+        private static JSObject queueItemToJSObject(MediaItem item) {
+            MediaMetadata metadata = item.mediaMetadata;
+            JSObject data = new JSObject()
+                    .put("id", item.mediaId)
+                    .put("url", item.localConfiguration != null ? item.localConfiguration.uri.toString() : null);
+            if (metadata.title != null) data.put("title", metadata.title.toString());
+            if (metadata.artist != null) data.put("artist", metadata.artist.toString());
+            if (metadata.albumTitle != null) data.put("album", metadata.albumTitle.toString());
+            if (metadata.artworkUri != null) data.put("imageUrl", metadata.artworkUri.toString());
+            return data;
+        }
+
+        // Readable from any thread; the player itself may only be touched on the main thread.
+        private void refreshQueueSnapshot() {
+            List<MediaItem> items = new ArrayList<>();
+            for (int i = 0; i < player.getMediaItemCount(); i++) {
+                items.add(player.getMediaItemAt(i));
+            }
+            queue = Collections.unmodifiableList(items);
+            queueIndex = items.isEmpty() ? C.INDEX_UNSET : player.getCurrentMediaItemIndex();
+            // Next and previous depend on the position in the queue.
+            updatePossibleActions();
+        }
+
+        private void ensurePlayer() {
+            if (player == null) {
+                ExoPlayer.Builder builder = new ExoPlayer.Builder(this)
+                        .setLoadControl(loadControl)
+                        .setTrackSelector(trackSelector)
+                        .setLivePlaybackSpeedControl(liveSpeedControl);
+                if (playerClock != null) {
+                    builder.setClock(playerClock);
+                }
+                player = builder.build();
+                if (requestedPlaybackRate != 1.0F) {
+                    player.setPlaybackParameters(new PlaybackParameters(requestedPlaybackRate));
+                }
+                setupPlayerListeners();
+            }
+        }
+
         public void pause() {
-            if (player != null) {
+            cancelReconnect();
+            if (player != null && hasMedia) {
                 Log.d("RemoteStreamerService", "pausing playback");
                 handler.post(() -> {
                     setPlaybackState(PlaybackStateCompat.STATE_PAUSED);
@@ -475,16 +1118,21 @@ import java.util.List;
         }
 
         public void resume() {
-            if (player != null) {
+            cancelReconnect();
+            if (player != null && hasMedia) {
                 Log.d("RemoteStreamerService", "resuming playback");
-                int focusResult = audioManager.requestAudioFocus(focusRequest);
-                if (focusResult == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+                hasAudioFocus = audioManager.requestAudioFocus(focusRequest) == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+                if (hasAudioFocus) {
                     handler.post(() -> {
                         if (player != null) {
-                            if (isLiveStream) {
-                                // if a live stream is paused and resumed, catch up to live
+                            if (isLiveStream && timeshiftMinutes == 0 && isTooFarBehindLive()) {
+                                // Too far to drift back, so jump to the live edge.
                                 player.seekToDefaultPosition();
                             }
+                            if (player.getPlaybackState() == Player.STATE_IDLE) {
+                                // After an error; carries on from the last position.
+                                player.prepare();
+                            }
                             player.play();
                         }
                     });
@@ -495,29 +1143,71 @@ import java.util.List;
             }
         }
 
+        /** Resumes, or starts the most recently played item when nothing is loaded yet. */
+        public void resumeOrPlayRecent() {
+            if (player != null && hasMedia) {
+                resume();
+                return;
+            }
+            List<String> recents = catalog.getRecents();
+            String url = recents.isEmpty() ? null : catalog.findStreamUrl(recents.get(0));
+            if (url != null) {
+                play(url);
+            }
+        }
+
         public void seekTo(Long position) {
             if (player != null) {
                 handler.post(() -> player.seekTo(position));
             }
         }
 
+        /** Seeks relative to the current position, staying inside the seekable window. */
+        public void seekBy(long deltaMs) {
+            handler.post(() -> {
+                if (player == null) {
+                    return;
+                }
+                long target = Math.max(0, player.getCurrentPosition() + deltaMs);
+                long duration = player.getDuration();
+                if (duration != C.TIME_UNSET) {
+                    target = Math.min(target, duration);
+                }
+                player.seekTo(target);
+            });
+        }
+
         public void stop() {
             stop(false);
         }
 
         public void stop(final boolean ended) {
+            cancelReconnect();
             if (plugin != null) plugin.onPlayerEvent("stop", new JSObject().put("ended", ended));
-            releasePlayer();
-            // Do not destroy service here, keep it alive or let it be destroyed by unbind if needed?
-            // Original code destroyed service on stop. But we want it to persist?
-            // If stopped, maybe we can stop foreground?
+            // Keep the player around for the next play(); only drop the current source.
+            handler.post(() -> {
+                stopUpdatingTime();
+                if (player != null) {
+                    player.stop();
+                    player.clearMediaItems();
+                }
+                hasMedia = false;
+                abandonAudioFocus();
+            });
+            // If stopped, the notification goes away, so stopping foreground is correct. The
+            // service stays bound but is no longer started; the next play starts it again.
             stopForeground(true);
-            // But we don't want to kill the service if the user just pressed stop but might play again?
-            // Actually, if they press stop, the notification goes away.
-            // So stopping foreground is correct.
+            isStarted = false;
+            stopSelf();
+        }
+
+        /** Whether the service was started for playback and hasn't been stopped since. */
+        public boolean isStarted() {
+            return isStarted;
         }
 
         public void releasePlayer() {
+            cancelReconnect();
             if (player != null) {
                 handler.post(() -> {
                     Log.d("RemoteStreamerService", "releasing player");
@@ -526,12 +1216,39 @@ import java.util.List;
                             player.release();
                             player = null;
                     }   
-                    audioManager.abandonAudioFocusRequest(focusRequest);
+                    queue = Collections.emptyList();
+                    queueIndex = C.INDEX_UNSET;
+                    currentItem = null;
+                    hasMedia = false;
+                    abandonAudioFocus();
                 });
             }
         }
 
+        private void abandonAudioFocus() {
+            if (hasAudioFocus) {
+                audioManager.abandonAudioFocusRequest(focusRequest);
+                hasAudioFocus = false;
+            }
+        }
+
         private void setupPlayerListeners() {
+            player.addAnalyticsListener(playbackStats);
+            player.addAnalyticsListener(new AnalyticsListener() {
+                @Override
+                public void onDownstreamFormatChanged(AnalyticsListener.EventTime eventTime, MediaLoadData mediaLoadData) {
+                    Format format = mediaLoadData.trackFormat;
+                    if (format == null || format.bitrate == Format.NO_VALUE || format.bitrate == lastReportedBitrate) {
+                        return;
+                    }
+                    lastReportedBitrate = format.bitrate;
+                    JSObject data = new JSObject()
+                            .put("bitrate", format.bitrate)
+                            .put("codecs", format.codecs)
+                            .put("dataSaver", dataSaver && networkMonitor.isMetered());
+                    if (plugin != null) plugin.onPlayerEvent("variantChange", data);
+                }
+            });
             player.addListener(new Player.Listener() {
                 @Override
                 public void onPlaybackStateChanged(int state) {
@@ -541,7 +1258,11 @@ import java.util.List;
                             break;
                         case Player.STATE_READY:
                             if (plugin != null) plugin.onPlayerEvent("buffering", new JSObject().put("isBuffering", false));
-                            if (!isLiveStream) startUpdatingTime();
+                            syncPlaybackPosition();
+                            refreshTimeUpdates();
+                            networkStats.outageEnded(isReconnecting);
+                            isReconnecting = false;
+                            reconnectAttempts = 0;
                             break;
                         case Player.STATE_ENDED:
                             stopUpdatingTime();
@@ -550,8 +1271,64 @@ import java.util.List;
                     }
                 }
 
+                @Override
+                public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+                    // The session extrapolates position from this speed.
+                    setPlaybackSpeed(playbackParameters.speed);
+                    syncPlaybackPosition();
+                }
+
+                @Override
+                public void onMetadata(Metadata metadata) {
+                    TimedMetadataParser.Result result = metadataParser.parse(metadata);
+                    if (result == null) {
+                        return;
+                    }
+                    // Apply it natively so the notification and the car update without waiting on JS.
+                    if (useStreamMetadata && (result.title != null || result.artist != null)) {
+                        if (result.title != null) setTitle(result.title);
+                        if (result.artist != null) setArtist(result.artist);
+                        update();
+                    }
+                    if (plugin != null) plugin.onPlayerEvent("id3Metadata", result.toJSObject());
+                }
+
+                @Override
+                public void onTimelineChanged(Timeline timeline, int reason) {
+                    if (reason == Player.TIMELINE_CHANGE_REASON_PLAYLIST_CHANGED) {
+                        refreshQueueSnapshot();
+                    }
+                    if (isLiveStream && !timeline.isEmpty()) {
+                        onLiveWindowChanged(timeline.getWindow(player.getCurrentMediaItemIndex(), new Timeline.Window()).getDurationMs());
+                    }
+                }
+
+                @Override
+                public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+                    refreshQueueSnapshot();
+                    onCurrentItemChanged(mediaItem);
+                    syncPlaybackPosition();
+                    refreshTimeUpdates();
+                    if (mediaItem == null || MediaItem.DEFAULT_MEDIA_ID.equals(mediaItem.mediaId)) {
+                        // A plain play(url) rather than a queue item.
+                        return;
+                    }
+                    JSObject data = queueItemToJSObject(mediaItem)
+                            .put("index", player.getCurrentMediaItemIndex())
+                            .put("reason", transitionReason(reason));
+                    if (plugin != null) plugin.onPlayerEvent("queueItemChange", data);
+                }
+
+                @Override
+                public void onPositionDiscontinuity(Player.PositionInfo oldPosition, Player.PositionInfo newPosition, int reason) {
+                    syncPlaybackPosition();
+                }
+
                 @Override
                 public void onIsPlayingChanged(boolean isPlaying) {
+                    syncPlaybackPosition();
+                    refreshTimeUpdates();
+                    refreshStatsReports();
                     if (isPlaying) {
                         if (plugin != null) plugin.onPlayerEvent("play", new JSObject());
                     } else {
@@ -561,8 +1338,14 @@ import java.util.List;
 
                 @Override
                 public void onPlayerError(PlaybackException error) {
-                    if (error.getCause().getClass().equals(java.net.ConnectException.class)) {
+                    if (isNetworkError(error)) {
+                        // The retry policy has given up, so the network is really gone. Keep the
+                        // item and position and pick up again once a network is back.
+                        boolean wasPlaying = player.getPlayWhenReady();
                         pause();
+                        networkStats.outageStarted();
+                        resumeOnReconnect = wasPlaying;
+                        scheduleReconnect();
                     }
                     if (error.errorCode == PlaybackException.ERROR_CODE_BEHIND_LIVE_WINDOW) {
                         player.seekToDefaultPosition();
@@ -574,30 +1357,282 @@ import java.util.List;
             });
         }
 
+        private static String transitionReason(int reason) {
+            switch (reason) {
+                case Player.MEDIA_ITEM_TRANSITION_REASON_AUTO:
+                    return "auto";
+                case Player.MEDIA_ITEM_TRANSITION_REASON_SEEK:
+                    return "skip";
+                case Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT:
+                    return "repeat";
+                default:
+                    return "queueChanged";
+            }
+        }
+
+        private static boolean isNetworkError(PlaybackException error) {
+            return error.errorCode == PlaybackException.ERROR_CODE_IO_NETWORK_CONNECTION_FAILED
+                    || error.errorCode == PlaybackException.ERROR_CODE_IO_NETWORK_CONNECTION_TIMEOUT
+                    || error.getCause() instanceof java.net.ConnectException;
+        }
+
+        /**
+         * Retries with backoff while the system still reports a working network, for example
+         * when only the stream's server was unreachable. Otherwise the network monitor calls
+         * reconnect() once a network passes validation.
+         */
+        private void scheduleReconnect() {
+            handler.removeCallbacks(reconnectTask);
+            if (!resumeOnReconnect || !networkMonitor.isValidated() || reconnectAttempts >= MAX_RECONNECT_ATTEMPTS) {
+                return;
+            }
+            reconnectAttempts++;
+            handler.postDelayed(reconnectTask, retryPolicy.backoff(RetryPolicy.ErrorClass.NETWORK, reconnectAttempts));
+        }
+
+        private void reconnect() {
+            handler.removeCallbacks(reconnectTask);
+            if (!resumeOnReconnect || player == null || !hasMedia) {
+                return;
+            }
+            Log.d(TAG, "network is back, resuming playback");
+            resume();
+            isReconnecting = true;
+        }
+
+        // Any command from the listener overrides a pending automatic resume.
+        private void cancelReconnect() {
+            resumeOnReconnect = false;
+            isReconnecting = false;
+            handler.removeCallbacks(reconnectTask);
+        }
+
+        public JSObject getNetworkStats() {
+            return networkStats.toJSObject();
+        }
+
+        /**
+         * The media session extrapolates position from the playback speed, so it only needs the
+         * position when playback starts, stops or jumps, not on every progress tick.
+         */
+        private void syncPlaybackPosition() {
+            if (player == null) {
+                return;
+            }
+            if (isLiveStream && timeshiftMinutes == 0) {
+                setDuration(0);
+                setPosition(0);
+            } else {
+                // With timeshift this is the position within the live window, so the session
+                // shows how far back the listener can go.
+                long duration = player.getDuration();
+                setDuration(duration == C.TIME_UNSET ? 0 : duration);
+                setPosition(player.getCurrentPosition());
+            }
+            update();
+        }
+
+        /**
+         * Changes the playback speed, keeping the pitch. The player is reused across play()
+         * calls, so the rate sticks until it is changed again.
+         */
+        public void setPlaybackRate(float rate) {
+            handler.post(() -> {
+                requestedPlaybackRate = rate;
+                if (player != null) {
+                    player.setPlaybackParameters(new PlaybackParameters(rate));
+                } else {
+                    setPlaybackSpeed(rate);
+                }
+            });
+        }
+
+        /**
+         * In data-saver mode HLS variants above maxBitrate are avoided while the network is
+         * metered. The cap follows network changes without interrupting playback.
+         */
+        public void setDataSaver(boolean enabled, int maxBitrate) {
+            handler.post(() -> {
+                dataSaver = enabled;
+                dataSaverMaxBitrate = maxBitrate;
+                applyBitrateCap();
+            });
+        }
+
+        private void applyBitrateCap() {
+            int maxBitrate = dataSaver && networkMonitor.isMetered() ? dataSaverMaxBitrate : Integer.MAX_VALUE;
+            trackSelector.setParameters(trackSelector.buildUponParameters().setMaxAudioBitrate(maxBitrate));
+        }
+
+        /**
+         * Sets how far behind the live edge to play (C.TIME_UNSET for the playlist's own hold
+         * back) and the speed range used to drift back to it. Applies from the next live play().
+         */
+        public void setLiveLatency(long targetOffsetMs, float minPlaybackSpeed, float maxPlaybackSpeed) {
+            handler.post(() -> {
+                targetLiveOffsetMs = targetOffsetMs;
+                liveMinPlaybackSpeed = minPlaybackSpeed;
+                liveMaxPlaybackSpeed = maxPlaybackSpeed;
+            });
+        }
+
+        private boolean isTooFarBehindLive() {
+            long offset = player.getCurrentLiveOffset();
+            if (offset == C.TIME_UNSET) {
+                return true;
+            }
+            long target = targetLiveOffsetMs != C.TIME_UNSET ? targetLiveOffsetMs : 0;
+            return offset - target > LIVE_CATCH_UP_LIMIT_MS;
+        }
+
+        /**
+         * Keeps live audio in memory so the stream can be paused and rewound without refetching,
+         * or turns that off when minutes is 0. Pausing no longer loses the live position and
+         * resume() continues from where playback stopped. Seeking can't go past the start of
+         * the stream's playlist, so the buffer holds at most the playlist's window, at most
+         * minutes and no more than the app's memory class can spare. Catch-up speed changes
+         * stop straight away, for the stream already playing too.
+         */
+        public void setTimeshift(int minutes) {
+            handler.post(() -> {
+                timeshiftMinutes = minutes;
+                liveSpeedControl.setPinned(minutes > 0);
+                if (isLiveStream && hasMedia) {
+                    loadControl.setProfile(defaultBufferProfile());
+                }
+                updatePossibleActions();
+                syncPlaybackPosition();
+            });
+        }
+
+        public boolean isLiveStream() {
+            return isLiveStream;
+        }
+
+        public boolean isTimeshiftEnabled() {
+            return timeshiftMinutes > 0;
+        }
+
+        // The timeshift buffer follows the playlist's window, since nothing older can be reached.
+        private void onLiveWindowChanged(long windowMs) {
+            if (windowMs == liveWindowMs) {
+                return;
+            }
+            liveWindowMs = windowMs;
+            if (timeshiftMinutes > 0 && requestedBufferProfile == null) {
+                loadControl.setProfile(defaultBufferProfile());
+            }
+        }
+
+        private BufferProfile defaultBufferProfile() {
+            if (isLiveStream && timeshiftMinutes > 0) {
+                return BufferProfile.timeshift(this, timeshiftMinutes, liveWindowMs);
+            }
+            return BufferProfile.forStream(this, isLiveStream);
+        }
+
+        /** Whether titles from ID3 or ICY metadata replace the now-playing title and artist. */
+        public void setUseStreamMetadata(boolean useStreamMetadata) {
+            this.useStreamMetadata = useStreamMetadata;
+        }
+
+        public void setTimeUpdateInterval(long intervalMs, long backgroundIntervalMs) {
+            handler.post(() -> {
+                timeUpdateIntervalMs = intervalMs;
+                backgroundTimeUpdateIntervalMs = backgroundIntervalMs;
+                if (updateTimeTask != null) {
+                    startUpdatingTime();
+                }
+            });
+        }
+
+        public void setBackgrounded(boolean backgrounded) {
+            handler.post(() -> isBackgrounded = backgrounded);
+        }
+
+        /**
+         * Runs the progress ticker only while audio plays and JS listens for what it would send:
+         * timeUpdate for on-demand audio, liveOffset for live streams.
+         */
+        public void refreshTimeUpdates() {
+            handler.post(() -> {
+                boolean wanted = player != null && player.isPlaying()
+                        && plugin != null && plugin.hasEventListeners(isLiveStream ? "liveOffset" : "timeUpdate");
+                if (!wanted) {
+                    stopUpdatingTime();
+                } else if (updateTimeTask == null) {
+                    startUpdatingTime();
+                }
+            });
+        }
+
         private void startUpdatingTime() {
             stopUpdatingTime();
             updateTimeTask = new Runnable() {
                 @Override
                 public void run() {
-                    if (player != null && player.isPlaying()) {
-                        long currentTime = player.getCurrentPosition();
-                        long duration = player.getDuration();
-                        setDuration(duration);
-                        setPosition(currentTime);
-                        update();
-                        JSObject timeData = new JSObject()
-                                .put("currentTime", currentTime / 1000.0)
-                                .put("duration", duration == C.TIME_UNSET ? 0 : duration / 1000.0);
-                        if (plugin != null) plugin.onPlayerEvent("timeUpdate", timeData);
-                        handler.postDelayed(this, 500);
+                    if (player == null || !player.isPlaying()) {
+                        updateTimeTask = null;
+                        return;
+                    }
+                    if (isLiveStream) {
+                        liveOffsetData(liveOffsetPayload, player.getCurrentLiveOffset(), targetLiveOffsetMs, player.getPlaybackParameters().speed);
+                        if (plugin != null) plugin.onPlayerEvent("liveOffset", liveOffsetPayload);
                     } else {
-                        handler.postDelayed(this, 1000);
+                        timeUpdateData(timeUpdatePayload, player.getCurrentPosition(), player.getDuration());
+                        if (plugin != null) plugin.onPlayerEvent("timeUpdate", timeUpdatePayload);
                     }
+                    handler.postDelayed(this, isBackgrounded ? backgroundTimeUpdateIntervalMs : timeUpdateIntervalMs);
                 }
             };
             handler.post(updateTimeTask);
         }
 
+        /** Must be called on the main thread. */
+        public JSObject getPlaybackStats() {
+            long liveOffset = player != null && isLiveStream ? player.getCurrentLiveOffset() : C.TIME_UNSET;
+            return playbackStats.toJSObject(liveOffset);
+        }
+
+        /** Sends a playbackStats summary every 30 s while audio plays and JS listens for it. */
+        public void refreshStatsReports() {
+            handler.post(() -> {
+                boolean wanted = player != null && player.isPlaying()
+                        && plugin != null && plugin.hasEventListeners("playbackStats");
+                if (!wanted && statsReportTask != null) {
+                    handler.removeCallbacks(statsReportTask);
+                    statsReportTask = null;
+                } else if (wanted && statsReportTask == null) {
+                    statsReportTask = new Runnable() {
+                        @Override
+                        public void run() {
+                            if (plugin != null) plugin.onPlayerEvent("playbackStats", getPlaybackStats());
+                            handler.postDelayed(this, STATS_REPORT_INTERVAL_MS);
+                        }
+                    };
+                    handler.postDelayed(statsReportTask, STATS_REPORT_INTERVAL_MS);
+                }
+            });
+        }
+
+        /** Fills data in place; the ticker reuses one payload per event. */
+        static JSObject timeUpdateData(JSObject data, long positionMs, long durationMs) {
+            return data
+                    .put("currentTime", positionMs / 1000.0)
+                    .put("duration", durationMs == C.TIME_UNSET ? 0 : durationMs / 1000.0);
+        }
+
+        static JSObject liveOffsetData(JSObject data, long offsetMs, long targetOffsetMs, float playbackSpeed) {
+            data.put("offset", offsetMs == C.TIME_UNSET ? 0 : offsetMs / 1000.0)
+                    .put("playbackSpeed", playbackSpeed);
+            if (targetOffsetMs != C.TIME_UNSET) {
+                data.put("targetOffset", targetOffsetMs / 1000.0);
+            } else {
+                data.remove("targetOffset");
+            }
+            return data;
+        }
+
         private void stopUpdatingTime() {
             if (updateTimeTask != null) {
                 handler.removeCallbacks(updateTimeTask);
@@ -614,12 +1649,17 @@ import java.util.List;
             handler.post(() -> {
                 switch (focusChange) {
                     case AudioManager.AUDIOFOCUS_GAIN:
+                        hasAudioFocus = true;
                         player.setVolume(1.0f);
                         if (resumeOnFocusLossTransient) {
                             player.play();
                         }
                         break;
                     case AudioManager.AUDIOFOCUS_LOSS:
+                        hasAudioFocus = false;
+                        resumeOnFocusLossTransient = player.isPlaying();
+                        player.pause();
+                        break;
                     case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
                         resumeOnFocusLossTransient = player.isPlaying();
                         player.pause();
@@ -639,7 +1679,18 @@ import java.util.List;
             });
         }
 
+        @VisibleForTesting
+        ExoPlayer getPlayer() {
+            return player;
+        }
+
+        /** Lets tests drive the player with a fake clock; takes effect for the next player. */
+        @VisibleForTesting
+        void setPlayerClock(Clock clock) {
+            playerClock = clock;
+        }
+
         public long getCurrentPosition() {
-            return position;
+            return player != null ? player.getCurrentPosition() : position;
         }
     }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package co.broadcastapp.muckabout;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Retries failed segment, playlist and stream loads with exponential backoff and jitter, with a
+ * different schedule per kind of failure. Lost connectivity gets quick, frequent retries, so
+ * playback carries on as soon as a tunnel or handoff is over. Overloaded servers are backed off
+ * from harder. Client errors such as 403 are not retried. Every retry is counted in
+ * {@link NetworkStats}.
+ */
+class RetryPolicy extends DefaultLoadErrorHandlingPolicy {
+    enum ErrorClass {
+        NETWORK(500, 8000),
+        TIMEOUT(1000, 10000),
+        SERVER(1000, 16000),
+        OTHER(1000, 5000);
+
+        final long baseDelayMs;
+        final long maxDelayMs;
+
+        ErrorClass(long baseDelayMs, long maxDelayMs) {
+            this.baseDelayMs = baseDelayMs;
+            this.maxDelayMs = maxDelayMs;
+        }
+    }
+
+    // With the network schedule this rides out roughly half a minute without connectivity.
+    private static final int MIN_RETRY_COUNT = 8;
+
+    private final NetworkStats stats;
+    private final Random random = new Random();
+
+    RetryPolicy(NetworkStats stats) {
+        super(MIN_RETRY_COUNT);
+        this.stats = stats;
+    }
+
+    @Override
+    public long getRetryDelayMsFor(LoadErrorInfo loadErrorInfo) {
+        if (super.getRetryDelayMsFor(loadErrorInfo) == C.TIME_UNSET) {
+            // Parser errors, missing files and the like won't fix themselves.
+            return C.TIME_UNSET;
+        }
+        ErrorClass errorClass = classify(loadErrorInfo.exception);
+        if (errorClass == null) {
+            return C.TIME_UNSET;
+        }
+        stats.recordRetry(errorClass);
+        return backoff(errorClass, loadErrorInfo.errorCount);
+    }
+
+    /** Returns how the failure should be retried, or null when it should not be. */
+    static ErrorClass classify(Throwable error) {
+        if (error instanceof HttpDataSource.InvalidResponseCodeException) {
+            int code = ((HttpDataSource.InvalidResponseCodeException) error).responseCode;
+            // 404 shows up at the live edge when a playlist is ahead of its segments.
+            if (code >= 500 || code == 404 || code == 408 || code == 429) {
+                return ErrorClass.SERVER;
+            }
+            return null;
+        }
+        if (error instanceof HttpDataSource.HttpDataSourceException) {
+            return error.getCause() instanceof SocketTimeoutException ? ErrorClass.TIMEOUT : ErrorClass.NETWORK;
+        }
+        return ErrorClass.OTHER;
+    }
+
+    /** Exponential delay for the given attempt, with the upper half randomised. */
+    long backoff(ErrorClass errorClass, int errorCount) {
+        int exponent = Math.min(Math.max(errorCount - 1, 0), 16);
+        long delay = Math.min(errorClass.baseDelayMs << exponent, errorClass.maxDelayMs);
+        // Keep half, randomise the rest so clients that failed together don't retry together.
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+}
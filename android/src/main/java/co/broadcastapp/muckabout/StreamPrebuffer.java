@@ -0,0 +1,175 @@
+package co.broadcastapp.muckabout;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMultivariantPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceInputStream;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Warms up the streams a listener is most likely to pick next. For HLS the multivariant and
+ * media playlists are resolved, which primes DNS, the TLS session and the connection pool;
+ * segments are left alone, since the player couldn't reuse them. Progressive streams have
+ * their first bytes read into the media cache when there is one, and are only connected to
+ * otherwise. Each stream is warmed once per catalog version, within a fixed byte budget, and
+ * never on a metered network.
+ */
+class StreamPrebuffer {
+    private static final String TAG = "StreamPrebuffer";
+
+    static final int DEFAULT_ITEM_COUNT = 2;
+    private static final int ITEM_BYTE_BUDGET = 256 * 1024;
+    private static final int TOTAL_BYTE_BUDGET = 1024 * 1024;
+
+    private final ConnectivityManager connectivityManager;
+    private final DataSource.Factory dataSourceFactory;
+    private volatile DataSource.Factory progressiveDataSourceFactory;
+    private volatile boolean progressiveCached = false;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Streams warmed since the catalog last changed.
+    private final Set<String> warmedUrls = Collections.synchronizedSet(new HashSet<>());
+    private Future<?> pending;
+    private volatile int itemCount = DEFAULT_ITEM_COUNT;
+
+    StreamPrebuffer(Context context, DataSource.Factory dataSourceFactory) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.dataSourceFactory = dataSourceFactory;
+        this.progressiveDataSourceFactory = dataSourceFactory;
+    }
+
+    /**
+     * Progressive warm-up goes through this factory.
+     *
+     * @param cached whether the factory writes to a cache the player reads, so bytes read
+     *               ahead are kept; without one only the connection is opened
+     */
+    void setProgressiveDataSourceFactory(DataSource.Factory progressiveDataSourceFactory, boolean cached) {
+        this.progressiveDataSourceFactory = progressiveDataSourceFactory;
+        this.progressiveCached = cached;
+    }
+
+    /** Lets every stream be warmed again, for example once the catalog has changed. */
+    void reset() {
+        warmedUrls.clear();
+    }
+
+    void setItemCount(int itemCount) {
+        this.itemCount = Math.max(0, itemCount);
+    }
+
+    synchronized void prebuffer(List<String> urls) {
+        cancel();
+        if (itemCount == 0 || urls.isEmpty() || isMetered()) {
+            return;
+        }
+        final List<String> targets = new ArrayList<>();
+        for (String url : urls.subList(0, Math.min(itemCount, urls.size()))) {
+            if (!warmedUrls.contains(url)) {
+                targets.add(url);
+            }
+        }
+        if (!targets.isEmpty()) {
+            pending = executor.submit(() -> warmUp(targets));
+        }
+    }
+
+    synchronized void cancel() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    void release() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void warmUp(List<String> urls) {
+        int remaining = TOTAL_BYTE_BUDGET;
+        for (String url : urls) {
+            if (remaining <= 0 || shouldStop()) {
+                return;
+            }
+            int budget = progressiveCached ? Math.min(ITEM_BYTE_BUDGET, remaining) : 0;
+            try {
+                Uri uri = Uri.parse(url);
+                if (url.contains(".m3u8")) {
+                    warmUpHls(uri);
+                } else {
+                    remaining -= read(progressiveDataSourceFactory, uri, budget);
+                }
+                if (!shouldStop()) {
+                    warmedUrls.add(url);
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "could not prebuffer " + url, e);
+            }
+        }
+    }
+
+    // Resolves down to a media playlist, which usually lives on the host serving the segments.
+    private void warmUpHls(Uri uri) throws IOException {
+        HlsPlaylist playlist = parsePlaylist(uri);
+        if (playlist instanceof HlsMultivariantPlaylist) {
+            HlsMultivariantPlaylist multivariant = (HlsMultivariantPlaylist) playlist;
+            if (multivariant.variants.isEmpty() || shouldStop()) {
+                return;
+            }
+            parsePlaylist(multivariant.variants.get(0).url);
+        }
+    }
+
+    private HlsPlaylist parsePlaylist(Uri uri) throws IOException {
+        DataSourceInputStream input = new DataSourceInputStream(dataSourceFactory.createDataSource(), new DataSpec(uri));
+        try {
+            return new HlsPlaylistParser().parse(uri, input);
+        } finally {
+            input.close();
+        }
+    }
+
+    private int read(DataSource.Factory factory, Uri uri, int budget) throws IOException {
+        DataSource dataSource = factory.createDataSource();
+        byte[] buffer = new byte[16 * 1024];
+        int total = 0;
+        try {
+            dataSource.open(new DataSpec(uri));
+            while (total < budget && !shouldStop()) {
+                int read = dataSource.read(buffer, 0, Math.min(buffer.length, budget - total));
+                if (read == C.RESULT_END_OF_INPUT) {
+                    break;
+                }
+                total += read;
+            }
+        } finally {
+            dataSource.close();
+        }
+        return total;
+    }
+
+    private boolean shouldStop() {
+        return Thread.currentThread().isInterrupted() || isMetered();
+    }
+
+    private boolean isMetered() {
+        return connectivityManager == null || connectivityManager.isActiveNetworkMetered();
+    }
+}
@@ -0,0 +1,98 @@
+package co.broadcastapp.muckabout;
+
+import android.util.Base64;
+
+import com.getcapacitor.JSObject;
+import com.google.android.exoplayer2.metadata.Metadata;
+import com.google.android.exoplayer2.metadata.icy.IcyInfo;
+import com.google.android.exoplayer2.metadata.id3.PrivFrame;
+import com.google.android.exoplayer2.metadata.id3.TextInformationFrame;
+
+/**
+ * Turns ID3 frames from HLS segments and ICY titles from progressive streams into now-playing
+ * data. HLS repeats the same tags in every segment, so anything identical to the previously
+ * parsed metadata is dropped.
+ */
+class TimedMetadataParser {
+    // Changes with every segment and says nothing about what is playing.
+    private static final String TIMESTAMP_OWNER = "com.apple.streaming.transportStreamTimestamp";
+
+    static final class Result {
+        final String title;
+        final String artist;
+        final JSObject frames;
+
+        Result(String title, String artist, JSObject frames) {
+            this.title = title;
+            this.artist = artist;
+            this.frames = frames;
+        }
+
+        JSObject toJSObject() {
+            JSObject data = new JSObject();
+            data.put("title", title);
+            data.put("artist", artist);
+            data.put("frames", frames);
+            return data;
+        }
+    }
+
+    private String lastSignature = null;
+
+    void reset() {
+        lastSignature = null;
+    }
+
+    /** Returns the parsed metadata, or null when it is empty or repeats the last one. */
+    Result parse(Metadata metadata) {
+        JSObject frames = new JSObject();
+        String title = null;
+        String artist = null;
+        for (int i = 0; i < metadata.length(); i++) {
+            Metadata.Entry entry = metadata.get(i);
+            if (entry instanceof TextInformationFrame) {
+                TextInformationFrame frame = (TextInformationFrame) entry;
+                if ("TXXX".equals(frame.id) && frame.description != null) {
+                    frames.put("TXXX:" + frame.description, frame.value);
+                } else {
+                    frames.put(frame.id, frame.value);
+                }
+                if ("TIT2".equals(frame.id)) {
+                    title = frame.value;
+                } else if ("TPE1".equals(frame.id)) {
+                    artist = frame.value;
+                }
+            } else if (entry instanceof PrivFrame) {
+                PrivFrame frame = (PrivFrame) entry;
+                if (!TIMESTAMP_OWNER.equals(frame.owner)) {
+                    frames.put("PRIV:" + frame.owner, Base64.encodeToString(frame.privateData, Base64.NO_WRAP));
+                }
+            } else if (entry instanceof IcyInfo) {
+                IcyInfo info = (IcyInfo) entry;
+                if (info.title != null) {
+                    frames.put("StreamTitle", info.title);
+                    // Shoutcast convention is "Artist - Title".
+                    int separator = info.title.indexOf(" - ");
+                    if (separator > 0) {
+                        artist = info.title.substring(0, separator).trim();
+                        title = info.title.substring(separator + 3).trim();
+                    } else {
+                        title = info.title.trim();
+                    }
+                }
+                if (info.url != null) {
+                    frames.put("StreamUrl", info.url);
+                }
+            }
+        }
+        if (frames.length() == 0) {
+            return null;
+        }
+        String signature = frames.toString();
+        if (signature.equals(lastSignature)) {
+            return null;
+        }
+        lastSignature = signature;
+        return new Result(title, artist, frames);
+    }
+}
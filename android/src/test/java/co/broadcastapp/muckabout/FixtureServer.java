@@ -0,0 +1,190 @@
+package co.broadcastapp.muckabout;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * An in-process HTTP server with generated audio fixtures: a progressive MP3 episode, an
+ * on-demand HLS playlist and any number of live HLS stations, all of silent MP3 frames. Faults
+ * can be switched on per test: added latency, a bandwidth cap, server errors, dropped
+ * connections and a live playlist that stops advancing.
+ */
+class FixtureServer {
+    static final int SEGMENT_SECONDS = 2;
+    private static final int LIVE_WINDOW_SEGMENTS = 4;
+    private static final int VOD_SEGMENTS = 6;
+    private static final int EPISODE_SECONDS = 20;
+
+    // MPEG-1 Layer III, 128 kbps, 44.1 kHz: 417 bytes and 1152 samples per frame.
+    private static final byte[] FRAME_HEADER = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x64 };
+    private static final int FRAME_BYTES = 417;
+    private static final double FRAMES_PER_SECOND = 44100 / 1152.0;
+
+    private final MockWebServer server = new MockWebServer();
+    private final byte[] segment = silence(SEGMENT_SECONDS);
+    private final byte[] episode = silence(EPISODE_SECONDS);
+    private final Map<String, Integer> pendingErrors = new HashMap<>();
+    private final Map<String, Integer> pendingDrops = new HashMap<>();
+    // Wall time, not SystemClock: Robolectric's clock only moves when the main looper does.
+    private final long startTime = System.nanoTime();
+    private volatile long latencyMs = 0;
+    private volatile long bytesPerSecond = 0;
+    private volatile Long stalledSequence = null;
+    private int errorCode = 503;
+
+    void start() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request.getPath());
+            }
+        });
+        server.start();
+    }
+
+    void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    String episodeUrl() {
+        return server.url("/episode.mp3").toString();
+    }
+
+    String vodUrl() {
+        return server.url("/vod/playlist.m3u8").toString();
+    }
+
+    String liveUrl(String station) {
+        return server.url("/live/" + station + "/playlist.m3u8").toString();
+    }
+
+    int getRequestCount() {
+        return server.getRequestCount();
+    }
+
+    /** Delays the headers of every response. */
+    void setLatency(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /** Caps every response body at this rate, or 0 for no cap. */
+    void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** The next count requests whose path contains pathPart are answered with code. */
+    synchronized void failNext(String pathPart, int count, int code) {
+        pendingErrors.put(pathPart, count);
+        errorCode = code;
+    }
+
+    /** The next count requests whose path contains pathPart are cut off halfway through the body. */
+    synchronized void dropNext(String pathPart, int count) {
+        pendingDrops.put(pathPart, count);
+    }
+
+    /** While stalled, live playlists keep returning the same segments. */
+    void setPlaylistStalled(boolean stalled) {
+        stalledSequence = stalled ? liveSequence() : null;
+    }
+
+    private MockResponse respond(String path) {
+        MockResponse response;
+        if (takeFault(pendingErrors, path)) {
+            response = new MockResponse().setResponseCode(errorCode);
+        } else if (path.equals("/episode.mp3")) {
+            response = audio(episode);
+        } else if (path.equals("/vod/playlist.m3u8")) {
+            response = playlist(vodPlaylist());
+        } else if (path.startsWith("/live/") && path.endsWith("/playlist.m3u8")) {
+            response = playlist(livePlaylist(path.substring(0, path.lastIndexOf('/'))));
+        } else if (path.endsWith(".mp3")) {
+            response = audio(segment);
+        } else {
+            response = new MockResponse().setResponseCode(404);
+        }
+        if (takeFault(pendingDrops, path)) {
+            response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+        }
+        if (latencyMs > 0) {
+            response.setHeadersDelay(latencyMs, TimeUnit.MILLISECONDS);
+        }
+        if (bytesPerSecond > 0) {
+            response.throttleBody(bytesPerSecond, 1, TimeUnit.SECONDS);
+        }
+        return response;
+    }
+
+    private synchronized boolean takeFault(Map<String, Integer> faults, String path) {
+        for (Map.Entry<String, Integer> fault : faults.entrySet()) {
+            if (path.contains(fault.getKey()) && fault.getValue() > 0) {
+                fault.setValue(fault.getValue() - 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String vodPlaylist() {
+        StringBuilder playlist = header(0);
+        for (int i = 0; i < VOD_SEGMENTS; i++) {
+            playlist.append("#EXTINF:").append(SEGMENT_SECONDS).append(".0,\n")
+                    .append("segment-").append(i).append(".mp3\n");
+        }
+        return playlist.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    private String livePlaylist(String stationPath) {
+        long sequence = stalledSequence != null ? stalledSequence : liveSequence();
+        StringBuilder playlist = header(sequence);
+        for (long i = sequence; i < sequence + LIVE_WINDOW_SEGMENTS; i++) {
+            playlist.append("#EXTINF:").append(SEGMENT_SECONDS).append(".0,\n")
+                    .append(stationPath).append("/segment-").append(i).append(".mp3\n");
+        }
+        return playlist.toString();
+    }
+
+    // The live window slides by one segment every SEGMENT_SECONDS, like a real encoder.
+    private long liveSequence() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime) / SEGMENT_SECONDS;
+    }
+
+    private static StringBuilder header(long mediaSequence) {
+        return new StringBuilder()
+                .append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:3\n")
+                .append("#EXT-X-TARGETDURATION:").append(SEGMENT_SECONDS).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append('\n');
+    }
+
+    private static MockResponse playlist(String body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/vnd.apple.mpegurl")
+                .setBody(body);
+    }
+
+    private static MockResponse audio(byte[] data) {
+        return new MockResponse()
+                .setHeader("Content-Type", "audio/mpeg")
+                .setBody(new Buffer().write(data));
+    }
+
+    /** Silent frames: an all-zero side info block decodes to silence. */
+    static byte[] silence(int seconds) {
+        int frames = (int) Math.ceil(seconds * FRAMES_PER_SECOND);
+        byte[] data = new byte[frames * FRAME_BYTES];
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(FRAME_HEADER, 0, data, i * FRAME_BYTES, FRAME_HEADER.length);
+        }
+        return data;
+    }
+}
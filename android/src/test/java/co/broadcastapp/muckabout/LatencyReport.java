@@ -0,0 +1,44 @@
+package co.broadcastapp.muckabout;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Appends one JSON line per measurement to build/reports/latency/results.jsonl, so runs can be
+ * compared over time without parsing test output. A result that can't be written fails the test,
+ * so a gap in the report doesn't go unnoticed.
+ */
+final class LatencyReport {
+    private static final File FILE = new File("build/reports/latency/results.jsonl");
+
+    private LatencyReport() {}
+
+    static void record(String scenario, String metric, double value, JSONObject details) {
+        try {
+            JSONObject line = new JSONObject()
+                    .put("time", System.currentTimeMillis())
+                    .put("scenario", scenario)
+                    .put("metric", metric)
+                    .put("value", value);
+            if (details != null) {
+                line.put("details", details);
+            }
+            FILE.getParentFile().mkdirs();
+            try (Writer writer = new FileWriter(FILE, true)) {
+                writer.write(line.toString());
+                writer.write('\n');
+            }
+        } catch (IOException | JSONException e) {
+            throw new AssertionError("could not record " + scenario, e);
+        }
+    }
+
+    static void record(String scenario, String metric, double value) {
+        record(scenario, metric, value, null);
+    }
+}
@@ -0,0 +1,208 @@
+package co.broadcastapp.muckabout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import com.getcapacitor.JSObject;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.robolectric.RobolectricUtil;
+import com.google.android.exoplayer2.robolectric.ShadowMediaCodecConfig;
+import com.google.android.exoplayer2.robolectric.TestPlayerRunHelper;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.util.Clock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Plays generated fixtures from a local server through the real service and player, and
+ * measures what listeners feel: time to first audio, station switches and recovery from
+ * server errors, dropped connections, stalled playlists and slow links. Everything runs
+ * offline. Durations are wall time, since the network is real even though the player runs on
+ * a fake clock; each one is appended to build/reports/latency/results.jsonl.
+ *
+ * The budgets are generous on purpose. They catch a regression that adds seconds, not
+ * milliseconds; the recorded numbers are for spotting the smaller ones.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PlaybackLatencyTest {
+    private static final long FIRST_AUDIO_BUDGET_MS = 5000;
+    private static final long RECOVERY_BUDGET_MS = 15000;
+    private static final long TIMEOUT_MS = 30000;
+
+    @Rule
+    public ShadowMediaCodecConfig mediaCodecConfig = ShadowMediaCodecConfig.forAllSupportedMimeTypes();
+
+    private FixtureServer server;
+    private ServiceController<RemoteStreamerService> controller;
+    private RemoteStreamerService service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FixtureServer();
+        server.start();
+        controller = Robolectric.buildService(RemoteStreamerService.class).create();
+        service = controller.get();
+        // Auto-advancing, so player timers don't wait on a main looper nobody else drives.
+        service.setPlayerClock(new FakeClock(true));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.releasePlayer();
+        shadowOf(Looper.getMainLooper()).idle();
+        controller.destroy();
+        server.shutdown();
+    }
+
+    @Test
+    public void progressiveEpisodeStartsWithinBudget() throws Exception {
+        long elapsed = timeToFirstAudio(server.episodeUrl());
+        LatencyReport.record("progressive", "timeToFirstAudioMs", elapsed, stats());
+        assertTrue("first audio took " + elapsed + " ms", elapsed < FIRST_AUDIO_BUDGET_MS);
+    }
+
+    @Test
+    public void onDemandHlsStartsWithinBudget() throws Exception {
+        long elapsed = timeToFirstAudio(server.vodUrl());
+        LatencyReport.record("vod-hls", "timeToFirstAudioMs", elapsed, stats());
+        assertTrue("first audio took " + elapsed + " ms", elapsed < FIRST_AUDIO_BUDGET_MS);
+    }
+
+    @Test
+    public void liveHlsStartsWithinBudget() throws Exception {
+        long elapsed = timeToFirstAudio(server.liveUrl("a"));
+        LatencyReport.record("live-hls", "timeToFirstAudioMs", elapsed, stats());
+        assertTrue("first audio took " + elapsed + " ms", elapsed < FIRST_AUDIO_BUDGET_MS);
+        assertTrue(service.isLiveStream());
+    }
+
+    @Test
+    public void liveHlsStartsWithinBudgetOnSlowServer() throws Exception {
+        // Playlist then segment: at least two round trips before the first frame decodes.
+        server.setLatency(300);
+        long elapsed = timeToFirstAudio(server.liveUrl("a"));
+        LatencyReport.record("live-hls-300ms-rtt", "timeToFirstAudioMs", elapsed, stats());
+        assertTrue("first audio took " + elapsed + " ms", elapsed < FIRST_AUDIO_BUDGET_MS + 600);
+    }
+
+    @Test
+    public void stationSwitchReusesPlayer() throws Exception {
+        timeToFirstAudio(server.liveUrl("a"));
+        ExoPlayer firstPlayer = service.getPlayer();
+
+        long elapsed = timeToFirstAudio(server.liveUrl("b"));
+        LatencyReport.record("station-switch", "timeToFirstAudioMs", elapsed, stats());
+        assertTrue("switch took " + elapsed + " ms", elapsed < FIRST_AUDIO_BUDGET_MS);
+        assertSame("player was rebuilt", firstPlayer, service.getPlayer());
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws Exception {
+        server.failNext(".mp3", 2, 503);
+        long elapsed = timeToFirstAudio(server.liveUrl("a"));
+        JSObject networkStats = service.getNetworkStats();
+        LatencyReport.record("live-hls-503", "timeToFirstAudioMs", elapsed, networkStats);
+        assertTrue(networkStats.getJSObject("retriesByClass").getInteger("server") >= 2);
+        assertTrue("first audio took " + elapsed + " ms", elapsed < RECOVERY_BUDGET_MS);
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        server.failNext("episode.mp3", 1, 403);
+        service.play(server.episodeUrl());
+        shadowOf(Looper.getMainLooper()).idle();
+        ExoPlayer player = service.getPlayer();
+        RobolectricUtil.runMainLooperUntil(() -> player.getPlayerError() != null, TIMEOUT_MS, Clock.DEFAULT);
+        assertEquals(0, (int) service.getNetworkStats().getInteger("retries"));
+    }
+
+    @Test
+    public void droppedConnectionRecovers() throws Exception {
+        // Later segments are cut off mid-body; the player should retry and play to the end.
+        server.dropNext("segment-3", 1);
+        server.dropNext("segment-4", 1);
+        long start = System.nanoTime();
+        service.play(server.vodUrl());
+        shadowOf(Looper.getMainLooper()).idle();
+        ExoPlayer player = service.getPlayer();
+        RobolectricUtil.runMainLooperUntil(
+                () -> player.getPlayerError() != null || player.getPlaybackState() == Player.STATE_ENDED,
+                TIMEOUT_MS,
+                Clock.DEFAULT);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LatencyReport.record("vod-hls-dropped", "timeToEndMs", elapsed, service.getNetworkStats());
+        assertNull(player.getPlayerError());
+        assertTrue(service.getNetworkStats().getInteger("retries") >= 2);
+    }
+
+    @Test
+    public void briefPlaylistStallIsTolerated() throws Exception {
+        timeToFirstAudio(server.liveUrl("a"));
+        ExoPlayer player = service.getPlayer();
+
+        // Shorter than the point where the player gives up on a playlist that won't move.
+        server.setPlaylistStalled(true);
+        runFor(3 * FixtureServer.SEGMENT_SECONDS * 1000L / 2);
+        server.setPlaylistStalled(false);
+        long start = System.nanoTime();
+        TestPlayerRunHelper.runUntilPlaybackState(player, Player.STATE_READY);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        LatencyReport.record("live-hls-stall", "recoveryMs", elapsed, stats());
+        assertNull(player.getPlayerError());
+        assertTrue(player.getPlayWhenReady());
+    }
+
+    @Test
+    public void bandwidthCapIsRecorded() throws Exception {
+        // Just above the 128 kbps fixtures, so any rebuffering is the player's doing.
+        server.setBandwidth(20_000);
+        long elapsed = timeToFirstAudio(server.liveUrl("a"));
+        runFor(2 * FixtureServer.SEGMENT_SECONDS * 1000L);
+
+        JSObject stats = stats();
+        LatencyReport.record("live-hls-160kbps", "timeToFirstAudioMs", elapsed, stats);
+        LatencyReport.record("live-hls-160kbps", "rebufferCount", stats.getInteger("rebufferCount"));
+        assertNull(service.getPlayer().getPlayerError());
+        assertFalse(service.getNetworkStats().getBool("inOutage"));
+    }
+
+    // Wall time from play() until the player is ready with playback requested.
+    private long timeToFirstAudio(String url) throws TimeoutException {
+        long start = System.nanoTime();
+        service.play(url);
+        shadowOf(Looper.getMainLooper()).idle();
+        ExoPlayer player = service.getPlayer();
+        TestPlayerRunHelper.runUntilPlaybackState(player, Player.STATE_READY);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(player.getPlayWhenReady());
+        return elapsed;
+    }
+
+    // Keeps the main looper turning for a stretch of wall time.
+    private static void runFor(long ms) throws TimeoutException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+        RobolectricUtil.runMainLooperUntil(() -> System.nanoTime() >= end, ms + TIMEOUT_MS, Clock.DEFAULT);
+    }
+
+    private JSObject stats() {
+        return service.getPlaybackStats();
+    }
+}
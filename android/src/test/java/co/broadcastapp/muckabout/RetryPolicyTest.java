@@ -0,0 +1,62 @@
+package co.broadcastapp.muckabout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.util.Util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class RetryPolicyTest {
+    private static final DataSpec DATA_SPEC = new DataSpec(Uri.parse("http://localhost/segment.mp3"));
+
+    @Test
+    public void classifiesHttpStatus() {
+        assertEquals(RetryPolicy.ErrorClass.SERVER, RetryPolicy.classify(status(503)));
+        assertEquals(RetryPolicy.ErrorClass.SERVER, RetryPolicy.classify(status(404)));
+        assertEquals(RetryPolicy.ErrorClass.SERVER, RetryPolicy.classify(status(429)));
+        assertNull(RetryPolicy.classify(status(403)));
+        assertNull(RetryPolicy.classify(status(410)));
+    }
+
+    @Test
+    public void classifiesConnectionFailures() {
+        assertEquals(RetryPolicy.ErrorClass.TIMEOUT, RetryPolicy.classify(connection(new SocketTimeoutException())));
+        assertEquals(RetryPolicy.ErrorClass.NETWORK, RetryPolicy.classify(connection(new IOException("reset"))));
+        assertEquals(RetryPolicy.ErrorClass.OTHER, RetryPolicy.classify(new IOException("other")));
+    }
+
+    @Test
+    public void backoffGrowsAndStaysWithinCap() {
+        RetryPolicy policy = new RetryPolicy(new NetworkStats());
+        for (RetryPolicy.ErrorClass errorClass : RetryPolicy.ErrorClass.values()) {
+            for (int errorCount = 1; errorCount <= 20; errorCount++) {
+                long delay = Math.min(errorClass.baseDelayMs << Math.min(errorCount - 1, 16), errorClass.maxDelayMs);
+                long backoff = policy.backoff(errorClass, errorCount);
+                assertTrue(errorClass + " #" + errorCount + ": " + backoff, backoff >= delay / 2 && backoff <= delay);
+            }
+        }
+    }
+
+    private static HttpDataSource.InvalidResponseCodeException status(int code) {
+        return new HttpDataSource.InvalidResponseCodeException(code, null, null, Collections.emptyMap(), DATA_SPEC, Util.EMPTY_BYTE_ARRAY);
+    }
+
+    private static HttpDataSource.HttpDataSourceException connection(IOException cause) {
+        return new HttpDataSource.HttpDataSourceException(
+                cause, DATA_SPEC, PlaybackException.ERROR_CODE_IO_NETWORK_CONNECTION_FAILED, HttpDataSource.HttpDataSourceException.TYPE_OPEN);
+    }
+}
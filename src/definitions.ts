@@ -1,7 +1,21 @@
 import type { PluginListenerHandle } from '@capacitor/core';
 
+/**
+ * On Android the player lives in a service started by the first `play()`.
+ * Configuration calls made before that are queued and resolve once the
+ * service is running.
+ */
 export interface RemoteStreamerPlugin {
-  play(options: { url: string, enableCommandCenter?: boolean, enableCommandCenterSeek?: boolean }): Promise<void>;
+  /**
+   * On Android, titles found in ID3 (HLS) or ICY (progressive) stream
+   * metadata replace the now-playing title and artist unless
+   * `useStreamMetadata` is false. They are always sent as `id3Metadata`.
+   *
+   * Android buffers by `bufferProfile`, which defaults to `live` for HLS and
+   * to `onDemand` (`lowMemory` on low-RAM devices) otherwise. Fields in
+   * `buffer` override the chosen profile.
+   */
+  play(options: { url: string, enableCommandCenter?: boolean, enableCommandCenterSeek?: boolean, useStreamMetadata?: boolean, bufferProfile?: BufferProfileName, buffer?: BufferOptions }): Promise<void>;
   pause(): Promise<void>;
   resume(): Promise<void>;
   seekTo(options: { position: number }): Promise<void>;
@@ -10,20 +24,209 @@ export interface RemoteStreamerPlugin {
   setPlaybackRate(options: { rate: number }): Promise<void>;
   setNowPlayingInfo(options: { title: string; artist: string; album: string; duration: string; imageUrl: string; isLiveStream: boolean }): Promise<void>;
   releasePlayer(): Promise<void>;
-  setMediaItems(options: { items: CarMediaItem[] }): Promise<void>;
+  /**
+   * Android only. Adds items to the native play queue at `index` (default:
+   * the end). The next item is prepared while the current one plays and
+   * playback moves on by itself, also while the app is in the background.
+   * `play()` replaces the whole queue with its single URL.
+   */
+  enqueue(options: { items: QueueItem[]; index?: number }): Promise<void>;
+  /** Android only. */
+  removeFromQueue(options: { index: number }): Promise<void>;
+  /** Android only. */
+  moveInQueue(options: { from: number; to: number }): Promise<void>;
+  /** Android only. Plays the queue item at `index`. */
+  skipTo(options: { index: number }): Promise<void>;
+  /** Android only. */
+  skipToNext(): Promise<void>;
+  /**
+   * Android only. Restarts the current item when more than a few seconds in,
+   * otherwise goes back to the previous one.
+   */
+  skipToPrevious(): Promise<void>;
+  /** Android only. `currentIndex` is -1 when the queue is empty. */
+  getQueue(): Promise<{ items: QueueItem[]; currentIndex: number }>;
+  /**
+   * Android only. Plays live HLS `targetOffset` seconds behind the live edge
+   * (default: the playlist's hold back) and drifts back to it by varying the
+   * speed between `minPlaybackSpeed` and `maxPlaybackSpeed` (default 0.97 and
+   * 1.03) instead of seeking. Applies from the next live `play()`.
+   */
+  setLiveLatency(options: { targetOffset?: number; minPlaybackSpeed?: number; maxPlaybackSpeed?: number }): Promise<void>;
+  /**
+   * Android only. Keeps live audio in memory so live streams can be paused,
+   * rewound and fast-forwarded without refetching. While enabled, resuming
+   * continues from the paused position instead of jumping to the live edge,
+   * and the player no longer speeds up or slows down to catch up with it.
+   * Rewinding can't go back past the start of the stream's playlist, so
+   * `minutes` (default 10, at most 30) is an upper limit: the window is the
+   * shorter of the playlist's length and `minutes`, and is shortened further on
+   * devices with little memory for the app.
+   */
+  setTimeshift(options: { enabled: boolean; minutes?: number }): Promise<void>;
+  /**
+   * Android only. While enabled and on a metered network, HLS variants above
+   * `maxBitrate` bits per second (default 64000) are avoided. The player
+   * follows network changes without restarting playback.
+   */
+  setDataSaver(options: { enabled: boolean; maxBitrate?: number }): Promise<void>;
+  /**
+   * Android only. Connect and read timeouts in seconds (default 8) for the
+   * shared HTTP client used by streams, playlists and artwork.
+   */
+  setNetworkTimeouts(options: { connectTimeout: number; readTimeout: number }): Promise<void>;
+  /**
+   * Android only. Load retries by error class and playback outages since the
+   * player service started. After an outage playback resumes by itself once a
+   * working network is back, unless it was paused, stopped or replaced.
+   */
+  getNetworkStats(): Promise<NetworkStats>;
+  /**
+   * Android only. Quality-of-experience numbers for the session started by
+   * the last `play()`. While audio plays, the same summary is also sent every
+   * 30 seconds as a `playbackStats` event. Rejects if nothing has been played.
+   */
+  getPlaybackStats(): Promise<PlaybackStats>;
+  /**
+   * Android only. Seconds between `timeUpdate` events while the app is in the
+   * foreground (default 0.5) and in the background (default 5). Events only
+   * run while on-demand audio plays and a `timeUpdate` listener is registered.
+   */
+  setTimeUpdateInterval(options: { interval: number; backgroundInterval?: number }): Promise<void>;
+  /**
+   * Android only. Caches on-demand audio on disk, evicting least recently
+   * used data beyond `maxBytes`. Pass 0 to disable. Applies from the next play().
+   */
+  setCacheSize(options: { maxBytes: number }): Promise<void>;
+  /**
+   * Android only. Downloads an on-demand episode in a background service.
+   * Once downloaded, or partly downloaded, `play()` with the same URL reads
+   * it from local storage. Interrupted downloads resume where they stopped.
+   * Progress and state changes arrive as `downloadProgress` and
+   * `downloadChange` events.
+   */
+  downloadEpisode(options: { id: string; url: string; title?: string }): Promise<void>;
+  /** Android only. Cancels the download if needed and deletes its data. */
+  removeDownload(options: { id: string }): Promise<void>;
+  /** Android only. */
+  getDownloads(): Promise<{ downloads: DownloadInfo[] }>;
+  /**
+   * Android only. Downloads wait until the network is unmetered and/or the
+   * device is charging when asked to. At most `maxParallelDownloads`
+   * (default 2) run at once.
+   */
+  setDownloadOptions(options: { unmeteredOnly?: boolean; requiresCharging?: boolean; maxParallelDownloads?: number }): Promise<void>;
+  /**
+   * Android also warms up the `prebufferCount` items after the current one
+   * (default 2, 0 disables) while on an unmetered network.
+   *
+   * Android: items form a tree through `parentId` and `browsable`, and a
+   * "Recently played" folder is added once something from the tree is
+   * played. With `parentId`, only that folder's children are replaced; use
+   * it to answer `loadChildren` events for `lazy` folders.
+   */
+  setMediaItems(options: { items: CarMediaItem[]; parentId?: string; prebufferCount?: number }): Promise<void>;
+  /**
+   * Android only. Adds or replaces items by id and removes the `remove` ids
+   * along with everything in them, leaving the rest of the tree alone. Only
+   * folders whose listing changed are refreshed in the car.
+   */
+  updateMediaItems(options: { upsert?: CarMediaItem[]; remove?: string[] }): Promise<void>;
   addListener(
-    eventName: 'play' | 'pause' | 'stop' | 'timeUpdate' | 'buffering' | 'error' | 'id3Metadata' | 'playFromCarPlay' | 'playFromMediaId',
+    eventName: 'play' | 'pause' | 'stop' | 'timeUpdate' | 'buffering' | 'error' | 'id3Metadata' | 'playFromCarPlay' | 'playFromMediaId' | 'variantChange' | 'liveOffset' | 'queueItemChange' | 'downloadChange' | 'downloadProgress' | 'playbackStats' | 'loadChildren',
     listenerFunc: (data: RemoteStreamerEventData) => void
   ): Promise<PluginListenerHandle>;
   removeAllListeners(): Promise<void>;
 }
 
+export type BufferProfileName = 'live' | 'onDemand' | 'lowMemory';
+
+export interface BufferOptions {
+  /** Seconds of audio the player always tries to keep buffered. */
+  minBuffer?: number;
+  /** Seconds of audio after which the player stops loading. */
+  maxBuffer?: number;
+  /** Seconds buffered before playback starts. */
+  bufferForPlayback?: number;
+  /** Seconds buffered before playback resumes after a stall. */
+  bufferForPlaybackAfterRebuffer?: number;
+  /** Seconds of already played audio kept for instant rewind. */
+  backBuffer?: number;
+  /** Upper bound on buffer memory in bytes. */
+  targetBufferBytes?: number;
+}
+
+export interface NetworkStats {
+  /** Segment, playlist and stream loads retried after a failure. */
+  retries: number;
+  retriesByClass: { network: number; timeout: number; server: number; other: number };
+  /** Times playback stopped because the network was gone. */
+  outages: number;
+  /** Outages that ended with an automatic resume. */
+  reconnects: number;
+  inOutage: boolean;
+  /** Seconds. */
+  lastOutageDuration: number;
+  /** Seconds. */
+  totalOutageDuration: number;
+}
+
+export interface QueueItem {
+  id: string;
+  url: string;
+  /** Shown in the notification and on the lock screen when the item starts. */
+  title?: string;
+  artist?: string;
+  album?: string;
+  imageUrl?: string;
+}
+
+export interface DownloadInfo {
+  id: string;
+  url: string;
+  title?: string;
+  state: 'queued' | 'stopped' | 'downloading' | 'completed' | 'failed' | 'removing' | 'restarting' | 'removed';
+  bytesDownloaded: number;
+  /** 0 to 100, missing while the total size is unknown. */
+  percentDownloaded?: number;
+  /** Only on a `downloadChange` to `failed`. */
+  error?: string;
+}
+
+/** Durations are in seconds. */
+export interface PlaybackStats {
+  url: string;
+  sessionDuration: number;
+  /** From `play()` until the player first had enough audio to start. */
+  timeToFirstAudio?: number;
+  playingTime: number;
+  /** Stalls after playback started, not counting seeks. */
+  rebufferCount: number;
+  rebufferDuration: number;
+  /** Current variant bitrate in bits per second. */
+  bitrate?: number;
+  bitrateSwitches: number;
+  bytesLoaded: number;
+  loadsCompleted: number;
+  /** Segment, playlist or stream loads that failed, whether retried or not. */
+  loadErrors: number;
+  /** Live streams only, seconds behind the live edge. */
+  liveOffset?: number;
+}
+
 export interface CarMediaItem {
   id: string;
   title: string;
   artist: string;
   imageUrl: string;
-  streamUrl: string;
+  /** Android: folders may leave this out. */
+  streamUrl?: string;
+  /** Android: the folder this item is in; the top level when left out. */
+  parentId?: string;
+  /** Android: the item is a folder that can be opened. */
+  browsable?: boolean;
+  /** Android: the folder's children are asked for with a `loadChildren` event when it is first opened. */
+  lazy?: boolean;
 }
 
 export type RemoteStreamerEventData =
@@ -35,7 +238,13 @@ export type RemoteStreamerEventData =
   | ErrorEvent
   | ID3MetadataEvent
   | PlayFromCarPlayEvent
-  | PlayFromMediaIdEvent;
+  | PlayFromMediaIdEvent
+  | VariantChangeEvent
+  | LiveOffsetEvent
+  | QueueItemChangeEvent
+  | DownloadEvent
+  | PlaybackStatsEvent
+  | LoadChildrenEvent;
 
 export interface PlayEvent {
   type: 'play';
@@ -64,9 +273,16 @@ export interface ErrorEvent {
   message: string;
 }
 
+/**
+ * Timed metadata from the stream. On web this is the hls.js `FRAG_PARSING_METADATA` data as is.
+ */
 export interface ID3MetadataEvent {
-  type: 'data';
-  message: object;
+  /** Title from TIT2 or the ICY StreamTitle; absent when the metadata has none. */
+  title?: string;
+  /** Artist from TPE1 or the ICY StreamTitle; absent when the metadata has none. */
+  artist?: string;
+  /** Every frame by id, e.g. `TIT2`, `TXXX:<description>`, `PRIV:<owner>` (base64), `StreamTitle`. */
+  frames: Record<string, string>;
 }
 
 export interface PlayFromCarPlayEvent {
@@ -77,4 +293,45 @@ export interface PlayFromCarPlayEvent {
 export interface PlayFromMediaIdEvent {
   type: 'playFromMediaId';
   mediaId: string;
-}
\ No newline at end of file
+}
+
+export interface VariantChangeEvent {
+  type: 'variantChange';
+  /** Peak bitrate of the variant now being played, in bits per second. */
+  bitrate: number;
+  codecs?: string;
+  /** Whether the data-saver cap is currently in effect. */
+  dataSaver: boolean;
+}
+
+export interface LiveOffsetEvent {
+  type: 'liveOffset';
+  /** Seconds behind the live edge. */
+  offset: number;
+  /** Requested target, if one was set with setLiveLatency. */
+  targetOffset?: number;
+  playbackSpeed: number;
+}
+
+export interface QueueItemChangeEvent extends QueueItem {
+  type: 'queueItemChange';
+  index: number;
+  /** `auto` when the previous item finished, `skip` for skips and seeks. */
+  reason: 'auto' | 'skip' | 'repeat' | 'queueChanged';
+}
+
+export interface DownloadEvent extends DownloadInfo {
+  type: 'downloadChange' | 'downloadProgress';
+}
+
+export interface PlaybackStatsEvent extends PlaybackStats {
+  type: 'playbackStats';
+}
+
+export interface LoadChildrenEvent {
+  type: 'loadChildren';
+  parentId: string;
+  /** Page asked for by the car, or -1 when it wants everything. */
+  page: number;
+  pageSize: number;
+}
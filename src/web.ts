@@ -1,7 +1,7 @@
 import { WebPlugin } from '@capacitor/core';
 import Hls from 'hls.js';
 
-import type { RemoteStreamerPlugin, CarMediaItem } from './definitions';
+import type { RemoteStreamerPlugin, CarMediaItem, DownloadInfo, NetworkStats, PlaybackStats, QueueItem } from './definitions';
 
 export class RemoteStreamerWeb extends WebPlugin implements RemoteStreamerPlugin {
   private audio: HTMLAudioElement | null = null;
@@ -122,10 +122,101 @@ export class RemoteStreamerWeb extends WebPlugin implements RemoteStreamerPlugin
     await this.stop();
   }
 
-  async setMediaItems(options: { items: CarMediaItem[] }): Promise<void> {
+  async setLiveLatency(options: { targetOffset?: number; minPlaybackSpeed?: number; maxPlaybackSpeed?: number }): Promise<void> {
+    console.log("Live latency control is not supported on web", options);
+  }
+
+  async enqueue(options: { items: QueueItem[]; index?: number }): Promise<void> {
+    console.log("The play queue is not supported on web", options);
+  }
+
+  async removeFromQueue(options: { index: number }): Promise<void> {
+    console.log("The play queue is not supported on web", options);
+  }
+
+  async moveInQueue(options: { from: number; to: number }): Promise<void> {
+    console.log("The play queue is not supported on web", options);
+  }
+
+  async skipTo(options: { index: number }): Promise<void> {
+    console.log("The play queue is not supported on web", options);
+  }
+
+  async skipToNext(): Promise<void> {
+    console.log("The play queue is not supported on web");
+  }
+
+  async skipToPrevious(): Promise<void> {
+    console.log("The play queue is not supported on web");
+  }
+
+  async getQueue(): Promise<{ items: QueueItem[]; currentIndex: number }> {
+    console.log("The play queue is not supported on web");
+    return { items: [], currentIndex: -1 };
+  }
+
+  async downloadEpisode(options: { id: string; url: string; title?: string }): Promise<void> {
+    console.log("Downloads are not supported on web", options);
+  }
+
+  async removeDownload(options: { id: string }): Promise<void> {
+    console.log("Downloads are not supported on web", options);
+  }
+
+  async getDownloads(): Promise<{ downloads: DownloadInfo[] }> {
+    console.log("Downloads are not supported on web");
+    return { downloads: [] };
+  }
+
+  async setDownloadOptions(options: { unmeteredOnly?: boolean; requiresCharging?: boolean; maxParallelDownloads?: number }): Promise<void> {
+    console.log("Downloads are not supported on web", options);
+  }
+
+  async setTimeshift(options: { enabled: boolean; minutes?: number }): Promise<void> {
+    console.log("Timeshift is not supported on web", options);
+  }
+
+  async setDataSaver(options: { enabled: boolean; maxBitrate?: number }): Promise<void> {
+    console.log("Data saver is not supported on web", options);
+  }
+
+  async setNetworkTimeouts(options: { connectTimeout: number; readTimeout: number }): Promise<void> {
+    console.log("Network timeouts are managed by the browser", options);
+  }
+
+  async getNetworkStats(): Promise<NetworkStats> {
+    console.log("Network stats are not collected on web");
+    return {
+      retries: 0,
+      retriesByClass: { network: 0, timeout: 0, server: 0, other: 0 },
+      outages: 0,
+      reconnects: 0,
+      inOutage: false,
+      lastOutageDuration: 0,
+      totalOutageDuration: 0,
+    };
+  }
+
+  async getPlaybackStats(): Promise<PlaybackStats> {
+    throw this.unimplemented('Playback stats are not collected on web.');
+  }
+
+  async setTimeUpdateInterval(options: { interval: number; backgroundInterval?: number }): Promise<void> {
+    console.log("Time update interval is fixed on web", options);
+  }
+
+  async setCacheSize(options: { maxBytes: number }): Promise<void> {
+    console.log("Media cache is not supported on web", options);
+  }
+
+  async setMediaItems(options: { items: CarMediaItem[]; parentId?: string; prebufferCount?: number }): Promise<void> {
     console.log("Setting media items for car UI", options);
   }
 
+  async updateMediaItems(options: { upsert?: CarMediaItem[]; remove?: string[] }): Promise<void> {
+    console.log("Updating media items for car UI", options);
+  }
+
   private setupID3Listeners(hls: Hls) {
     if (hls) {
       hls.on(Hls.Events.FRAG_PARSING_METADATA, (_, data) => {